@@ -3,53 +3,144 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.time.Duration;
 
-import com.lox.Environment;
+import com.lox.ExecutionBudget;
 import com.lox.Interpreter;
 import com.lox.InterpreterException;
-import com.lox.Parser;
+import com.lox.Isolate;
 import com.lox.ParserException;
-import com.lox.Scanner;
+import com.lox.PrettyPrinter;
+import com.lox.Program;
 import com.lox.ScannerException;
-import com.lox.ast.Stmt;
-import com.lox.ast.Token;
+import com.lox.SourceFile;
 import com.lox.object.LoxNil;
 import com.lox.object.LoxObject;
 import com.lox.utils.Pair;
 
 public class Jlox {
-  public static void main(String[] args) throws IOException, InterpreterException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
+  private static boolean optimize = true;
+  private static boolean dumpAst = false;
+  // Lox calls are evaluated recursively, so the interpreter runs on a thread
+  // with a large stack to allow deep recursion
+  private static long stackSize = 512L * 1024 * 1024;
+  private static boolean hasStackSize = false;
+  private static int maxCallDepth = Integer.MAX_VALUE;
+  // Limits of every script run by a server
+  private static long maxSteps = ExecutionBudget.UNLIMITED;
+  private static long maxAllocations = ExecutionBudget.UNLIMITED;
+  private static long timeLimitMillis = 60_000;
+  private static Path serverSocket = null;
+  // Exit status of the last script that ran, the same as with a server (see
+  // JloxProtocol)
+  private static int status = JloxProtocol.EX_OK;
+  private static Path clientSocket = null;
+
+  public static void main(String[] args) throws Throwable {
+    String script = null;
+    for (String arg : args) {
+      if (arg.equals("--no-optimize")) {
+        optimize = false;
+      } else if (arg.equals("--dump-ast")) {
+        dumpAst = true;
+      } else if (arg.startsWith("--stack-size=")) {
+        stackSize = parsePositive(arg.substring("--stack-size=".length())) * 1024 * 1024;
+        hasStackSize = true;
+      } else if (arg.startsWith("--max-call-depth=")) {
+        maxCallDepth = (int) Math.min(parsePositive(arg.substring("--max-call-depth=".length())), Integer.MAX_VALUE);
+      } else if (arg.startsWith("--max-steps=")) {
+        maxSteps = parsePositive(arg.substring("--max-steps=".length()));
+      } else if (arg.startsWith("--max-allocations=")) {
+        maxAllocations = parsePositive(arg.substring("--max-allocations=".length()));
+      } else if (arg.startsWith("--time-limit=")) {
+        timeLimitMillis = parsePositive(arg.substring("--time-limit=".length()));
+      } else if (arg.startsWith("--server=")) {
+        serverSocket = Path.of(arg.substring("--server=".length()));
+      } else if (arg.startsWith("--connect=")) {
+        clientSocket = Path.of(arg.substring("--connect=".length()));
+      } else if (script == null && !arg.startsWith("--")) {
+        script = arg;
+      } else {
+        printUsageAndExit();
+      }
+    }
+
+    if (serverSocket != null && (script != null || clientSocket != null)
+        || clientSocket != null && script == null) {
+      printUsageAndExit();
+    }
+    // Scripts run by a server are on virtual threads, whose stack is as large
+    // as the JVM lets threads grow theirs
+    if (serverSocket != null && hasStackSize) {
+      System.err.println("jlox: --stack-size doesn't apply to --server, start the JVM with -Xss<size> instead");
       System.exit(2);
-    } else if (args.length == 1) {
-      runFile(args[0]);
-    } else {
-      runPrompt();
+    }
+    if (serverSocket != null && maxCallDepth != Integer.MAX_VALUE && maxCallDepth > Interpreter.THREAD_MAX_CALL_DEPTH) {
+      System.err.println(String.format(
+          "jlox: --max-call-depth=%s lowered to %s, which is what a stack of %s KiB holds (see -Xss)",
+          maxCallDepth, Interpreter.THREAD_MAX_CALL_DEPTH, Interpreter.THREAD_STACK_SIZE / 1024));
+    }
+    if (clientSocket != null) {
+      System.exit(JloxClient.run(clientSocket, script));
+    }
+    if (serverSocket != null) {
+      JloxServer.serve(serverSocket, maxCallDepth,
+          new ExecutionBudget(maxSteps, maxAllocations, Duration.ofMillis(timeLimitMillis)));
+      return;
+    }
+
+    final String path = script;
+    final Throwable[] failure = new Throwable[1];
+    final Thread thread = new Thread(null, () -> {
+      try {
+        if (path != null) {
+          runFile(path);
+        } else {
+          runPrompt();
+        }
+      } catch (Throwable e) {
+        failure[0] = e;
+      }
+    }, "jlox", stackSize);
+    thread.start();
+    thread.join();
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    if (path != null && status != JloxProtocol.EX_OK) {
+      System.exit(status);
     }
   }
 
-  public static void runFile(String path) throws IOException, InterpreterException {
-    Interpreter interpreter;
+  private static long parsePositive(String value) {
     try {
-      interpreter = new Interpreter();
-    } catch (Exception e) {
-      throw new Error("Failed to construct interpreter");
+      final long res = Long.parseLong(value);
+      if (res > 0) {
+        return res;
+      }
+    } catch (NumberFormatException e) {
     }
+    printUsageAndExit();
+    return 0;
+  }
+
+  private static void printUsageAndExit() {
+    System.out.println("Usage: jlox [--no-optimize] [--dump-ast] [--stack-size=<MiB>] [--max-call-depth=<n>] [script]");
+    System.out.println("       jlox --server=<socket> [--max-call-depth=<n>] [--max-steps=<n>] [--max-allocations=<n>] [--time-limit=<ms>]");
+    System.out.println("       jlox --connect=<socket> <script>");
+    System.exit(2);
+  }
+
+  public static void runFile(String path) throws IOException, InterpreterException {
+    final Isolate isolate = new Isolate(maxCallDepth);
     byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(interpreter, Environment.createGlobals(), new String(bytes, Charset.defaultCharset()));
+    run(isolate, new SourceFile(path, new String(bytes, Charset.defaultCharset())), true);
   }
 
   public static void runPrompt() throws IOException, InterpreterException {
-    Interpreter interpreter;
-    Environment env = Environment.createGlobals();
-    try {
-      interpreter = new Interpreter();
-    } catch (Exception e) {
-      throw new Error("Failed to construct interpreter");
-    }
+    final Isolate isolate = new Isolate(maxCallDepth);
 
     BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 
@@ -57,67 +148,64 @@ public class Jlox {
       System.out.print("> ");
       String line = reader.readLine();
       if (line == null) break;
-      final LoxObject res = run(interpreter, env, line);
+      // Functions declared on earlier lines fail with positions in those lines,
+      // so runtime errors are reported without positions
+      final LoxObject res = run(isolate, new SourceFile("<stdin>", line), false);
       if (!(res instanceof LoxNil)) {
         System.out.println(res.toString());
       }
     }
   }
 
-  private static LoxObject run(Interpreter interpreter, Environment env, String source) {
-    final Scanner scanner = new Scanner(source);
-    final Pair<List<Token>, List<ScannerException>> scannerRes = scanner.tokenize();
-    if (scannerRes.second.size() > 0) {
-      for (ScannerException e: scannerRes.second) {
-        reportError(e, source);
+  private static LoxObject run(Isolate isolate, SourceFile source, boolean locateRuntimeErrors) {
+    final Program program = Program.compile(source, optimize);
+    if (program.hasErrors()) {
+      for (ScannerException e: program.scannerErrors) {
+        System.err.println(formatError(e, source));
       }
+      for (ParserException e: program.parserErrors) {
+        System.err.println(formatError(e, source));
+      }
+      status = JloxProtocol.EX_DATAERR;
       return LoxNil.NIL;
     }
 
-    final Parser parser = new Parser(scannerRes.first);
-    final Pair<List<Stmt>, List<ParserException>> parserRes = parser.parse();
-    if (parserRes.second.size() > 0) {
-      for (ParserException e: parserRes.second) {
-        reportError(e, source);
+    if (dumpAst) {
+      final PrettyPrinter printer = new PrettyPrinter();
+      System.err.println("== AST ==");
+      System.err.println(printer.print(optimize ? Program.compile(source, false).stmts : program.stmts));
+      if (optimize) {
+        System.err.println("== Optimized AST ==");
+        System.err.println(printer.print(program.stmts));
       }
-      return LoxNil.NIL;
     }
 
-    LoxObject res = LoxNil.NIL;
-
     try {
-      for (Stmt stmt: parserRes.first) {
-        res = interpreter.evaluateStmt(stmt, env);
-      }
+      final LoxObject res = isolate.run(program);
+      status = JloxProtocol.EX_OK;
       return res;
     } catch (InterpreterException e) {
-      reportError(e, source);
+      System.err.println(locateRuntimeErrors ? formatError(e, source) : e.message);
+      status = JloxProtocol.EX_SOFTWARE;
       return LoxNil.NIL;
     }
   }
 
-  private static void reportError(ScannerException e, String source) {
-    final Pair<Long, Long> startPos = getLineAndCol(e.startOffset, source);
-    final Pair<Long, Long> endPos = getLineAndCol(e.endOffset, source);
-    System.err.println(String.format("[Error] (line %s column %s) %s", startPos.first, startPos.second, e.message));
+  static String formatError(ScannerException e, SourceFile source) {
+    final Pair<Integer, Integer> startPos = source.getLineAndCol(e.startOffset);
+    return String.format("[Error] (line %s column %s) %s", startPos.first, startPos.second, e.message);
   }
 
-  private static void reportError(ParserException e, String source) {
-    final Pair<Long, Long> startPos = getLineAndCol(e.startOffset, source);
-    final Pair<Long, Long> endPos = getLineAndCol(e.endOffset, source);
-    System.err.println(String.format("[Error] (line %s column %s) %s", startPos.first, startPos.second, e.message));
+  static String formatError(ParserException e, SourceFile source) {
+    final Pair<Integer, Integer> startPos = source.getLineAndCol(e.startOffset);
+    return String.format("[Error] (line %s column %s) %s", startPos.first, startPos.second, e.message);
   }
 
-  private static void reportError(InterpreterException e, String source) {
-    System.err.println(e.message);
-  }
-
-  private static Pair<Long, Long> getLineAndCol(int offset, String source) {
-    final String beforeSource = source.substring(0, offset);
-    final long line = beforeSource.chars()
-                                  .filter(ch -> ch == '\n')
-                                  .count() + 1;
-    final long col = beforeSource.length() - beforeSource.lastIndexOf('\n');
-    return new Pair<>(line, col);
+  static String formatError(InterpreterException e, SourceFile source) {
+    if (e.startOffset() < 0 || e.startOffset() > source.text.length()) {
+      return String.format("[Error] %s", e.message);
+    }
+    final Pair<Integer, Integer> startPos = source.getLineAndCol(e.startOffset());
+    return String.format("[Error] (line %s column %s) %s", startPos.first, startPos.second, e.message);
   }
 }
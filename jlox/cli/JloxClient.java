@@ -0,0 +1,51 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// `jlox --connect=<socket> <script>`: has the server listening on `socket`
+// run the script (see JloxServer), writes what it prints to the standard
+// streams as it comes, and gives back its exit status.
+class JloxClient {
+  private JloxClient() {
+  }
+
+  static int run(Path socket, String path) throws IOException {
+    final byte[] text = Files.readAllBytes(Path.of(path));
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      JloxProtocol.write(out, JloxProtocol.NAME, path.getBytes(StandardCharsets.UTF_8));
+      JloxProtocol.write(out, JloxProtocol.SOURCE, text);
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      while (true) {
+        final JloxProtocol.Frame frame = JloxProtocol.read(in);
+        if (frame == null) {
+          System.err.println("[Error] The server closed the connection before the script ended");
+          return JloxProtocol.EX_SOFTWARE;
+        }
+        switch (frame.kind()) {
+          case JloxProtocol.STDOUT -> {
+            System.out.write(frame.payload());
+            System.out.flush();
+          }
+          case JloxProtocol.STDERR -> {
+            System.err.write(frame.payload());
+            System.err.flush();
+          }
+          case JloxProtocol.EXIT -> {
+            return ByteBuffer.wrap(frame.payload()).getInt();
+          }
+          default -> throw new IOException(String.format("Unexpected '%c' frame", frame.kind()));
+        }
+      }
+    }
+  }
+}
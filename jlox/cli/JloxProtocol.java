@@ -0,0 +1,66 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+// What `jlox --connect` and `jlox --server` say to each other over a Unix
+// domain socket. Every message is a frame: a kind byte, the length of the
+// payload as a 4-byte big-endian integer, then the payload.
+// - The client sends a NAME frame with the name of the script, then a SOURCE
+//   frame with its text, both in UTF-8.
+// - The server answers with STDOUT and STDERR frames as the script prints,
+//   then an EXIT frame with the exit status as a 4-byte big-endian integer,
+//   and closes the connection.
+class JloxProtocol {
+  static final byte NAME = 'N';
+  static final byte SOURCE = 'S';
+  static final byte STDOUT = 'O';
+  static final byte STDERR = 'E';
+  static final byte EXIT = 'X';
+
+  // Exit statuses, as in sysexits.h
+  static final int EX_OK = 0;
+  static final int EX_DATAERR = 65;
+  static final int EX_SOFTWARE = 70;
+
+  private static final int MAX_PAYLOAD = 64 * 1024 * 1024;
+
+  record Frame(byte kind, byte[] payload) {
+  }
+
+  private JloxProtocol() {
+  }
+
+  static void write(DataOutputStream out, byte kind, byte[] payload) throws IOException {
+    out.writeByte(kind);
+    out.writeInt(payload.length);
+    out.write(payload);
+    out.flush();
+  }
+
+  // The next frame, or null if the peer closed the connection instead
+  static Frame read(DataInputStream in) throws IOException {
+    final int kind = in.read();
+    if (kind < 0) {
+      return null;
+    }
+    final int length = in.readInt();
+    if (length < 0 || length > MAX_PAYLOAD) {
+      throw new IOException(String.format("Invalid frame length %s", length));
+    }
+    final byte[] payload = new byte[length];
+    in.readFully(payload);
+    return new Frame((byte) kind, payload);
+  }
+
+  static Frame expect(DataInputStream in, byte kind) throws IOException {
+    final Frame frame = JloxProtocol.read(in);
+    if (frame == null) {
+      throw new EOFException();
+    }
+    if (frame.kind != kind) {
+      throw new IOException(String.format("Expected a '%c' frame but got '%c'", kind, frame.kind));
+    }
+    return frame;
+  }
+}
@@ -0,0 +1,212 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.lox.ExecutionBudget;
+import com.lox.InterpreterException;
+import com.lox.LoxExecutor;
+import com.lox.ParserException;
+import com.lox.Program;
+import com.lox.ScannerException;
+import com.lox.Scheduler;
+import com.lox.SourceFile;
+import com.lox.object.LoxObject;
+
+// `jlox --server=<socket>`: runs the scripts sent by `jlox --connect` (see
+// JloxProtocol) in one long-lived JVM, so that they skip its startup and run
+// on code the JIT already compiled. Each script runs in fresh globals through
+// a LoxExecutor, which also caches the compiled programs by source text.
+// What a script prints is streamed back to its client as it goes.
+//
+// Scripts are time-sliced over one carrier per processor, each within a
+// budget of its own, so that a script that never ends can't wedge the
+// server. A script is stopped, along with its tasks, when its client goes
+// away.
+class JloxServer {
+  private static final Duration QUANTUM = Duration.ofMillis(2);
+  private static final System.Logger logger = System.getLogger("jlox.server");
+
+  private final LoxExecutor executor;
+  // The limits of every run, copied into a budget of its own
+  private final ExecutionBudget limits;
+
+  private JloxServer(LoxExecutor executor, ExecutionBudget limits) {
+    this.executor = executor;
+    this.limits = limits;
+  }
+
+  static void serve(Path socket, int maxCallDepth, ExecutionBudget limits) throws IOException, InterpreterException {
+    final UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+    if (JloxServer.isListening(address)) {
+      throw new IOException(String.format("A server is already listening on '%s'", socket));
+    }
+    // A socket there is left over from a server that died. Anything else
+    // isn't ours to delete.
+    if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+      if (!Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+        throw new IOException(String.format("'%s' exists and isn't a socket", socket));
+      }
+      Files.delete(socket);
+    }
+    final Scheduler scheduler = new Scheduler(Runtime.getRuntime().availableProcessors(), QUANTUM);
+    try (LoxExecutor executor = new LoxExecutor(null, maxCallDepth, scheduler);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(address);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          Files.deleteIfExists(socket);
+        } catch (IOException e) {
+          // Exiting anyway
+        }
+      }));
+      final JloxServer jlox = new JloxServer(executor, limits);
+      while (true) {
+        final SocketChannel client = server.accept();
+        Thread.ofVirtual().name("jlox-client").start(() -> jlox.handle(client));
+      }
+    }
+  }
+
+  private static boolean isListening(UnixDomainSocketAddress address) {
+    try {
+      SocketChannel.open(address).close();
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void handle(SocketChannel channel) {
+    try (channel) {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      final Connection connection = new Connection(
+          new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel))));
+      final String name = new String(JloxProtocol.expect(in, JloxProtocol.NAME).payload(), StandardCharsets.UTF_8);
+      final String text = new String(JloxProtocol.expect(in, JloxProtocol.SOURCE).payload(), StandardCharsets.UTF_8);
+      final PrintStream stdout = new PrintStream(connection.stream(JloxProtocol.STDOUT), true, StandardCharsets.UTF_8);
+      final PrintStream stderr = new PrintStream(connection.stream(JloxProtocol.STDERR), true, StandardCharsets.UTF_8);
+      connection.exit(this.run(new SourceFile(name, text), in, stdout, stderr));
+    } catch (IOException e) {
+      // The client went away or doesn't speak the protocol
+    }
+  }
+
+  // The client sends nothing once it sent the script, so the end of `in`
+  // means that it went away
+  private int run(SourceFile source, DataInputStream in, PrintStream stdout, PrintStream stderr) {
+    final Program program = this.executor.compile(source);
+    if (program.hasErrors()) {
+      for (ScannerException e : program.scannerErrors) {
+        stderr.println(Jlox.formatError(e, source));
+      }
+      for (ParserException e : program.parserErrors) {
+        stderr.println(Jlox.formatError(e, source));
+      }
+      return JloxProtocol.EX_DATAERR;
+    }
+    final ExecutionBudget budget = new ExecutionBudget(this.limits.maxSteps, this.limits.maxAllocations,
+        this.limits.timeout);
+    final CompletableFuture<LoxObject> result = this.executor.submit(program, Map.of(), budget, stdout);
+    // Ends when the client goes away, or when the connection is closed once
+    // the script is done, when cancelling has no effect
+    Thread.ofVirtual().name("jlox-watcher").start(() -> {
+      try {
+        in.read();
+      } catch (IOException e) {
+        // Gone all the same
+      }
+      result.cancel(false);
+    });
+    try {
+      result.get();
+      return JloxProtocol.EX_OK;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof InterpreterException cause) {
+        stderr.println(Jlox.formatError(cause, source));
+      } else {
+        stderr.println(String.format("[Internal error] %s", e.getCause()));
+        JloxServer.logger.log(System.Logger.Level.ERROR, String.format("Running '%s' failed", source.name),
+            e.getCause());
+      }
+      return JloxProtocol.EX_SOFTWARE;
+    } catch (CancellationException e) {
+      return JloxProtocol.EX_SOFTWARE;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.cancel(false);
+      return JloxProtocol.EX_SOFTWARE;
+    }
+  }
+
+  // The sending side of a connection. The tasks of a script may print at
+  // the same time, so frames are sent under a lock, which isn't a monitor
+  // so that a virtual thread waiting for the socket can leave its carrier.
+  // Once the exit status is sent, output is dropped, e.g. that of tasks that
+  // print before they are stopped.
+  private static class Connection {
+    private final DataOutputStream out;
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean isClosed = false;
+
+    Connection(DataOutputStream out) {
+      this.out = out;
+    }
+
+    OutputStream stream(byte kind) {
+      return new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          Connection.this.send(kind, new byte[] { (byte) b });
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          Connection.this.send(kind, Arrays.copyOfRange(b, off, off + len));
+        }
+      };
+    }
+
+    void exit(int status) throws IOException {
+      this.lock.lock();
+      try {
+        this.send(JloxProtocol.EXIT, new byte[] {
+            (byte) (status >>> 24), (byte) (status >>> 16), (byte) (status >>> 8), (byte) status });
+        this.isClosed = true;
+      } finally {
+        this.lock.unlock();
+      }
+    }
+
+    private void send(byte kind, byte[] payload) throws IOException {
+      this.lock.lock();
+      try {
+        if (!this.isClosed) {
+          JloxProtocol.write(this.out, kind, payload);
+        }
+      } finally {
+        this.lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package com.lox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.lox.object.LoxFunction;
+import com.lox.object.LoxNil;
+import com.lox.object.LoxPromise;
+import com.lox.object.LoxSocket;
+import com.lox.object.LoxString;
+
+// Asynchronous natives: setTimeout, readFile, writeFile and connect. They
+// start the operation on the NIO channels of the JDK and return a promise
+// right away, which the event loop of the calling thread settles once the
+// operation completes (see EventLoop). Files are read and written whole, as
+// UTF-8.
+public class AsyncIO {
+  private AsyncIO() {
+  }
+
+  public static LoxPromise setTimeout(LoxFunction fn, double millis) throws InterpreterException {
+    final EventLoop loop = EventLoop.current("setTimeout");
+    final LoxPromise promise = new LoxPromise(loop);
+    loop.schedule(millis, () -> {
+      try {
+        promise.resolve(loop.interpreter.call(fn, List.of()));
+      } catch (InterpreterException e) {
+        promise.reject(e.message);
+      }
+    });
+    return promise;
+  }
+
+  public static LoxPromise readFile(String path) throws InterpreterException {
+    final EventLoop loop = EventLoop.current("readFile");
+    final LoxPromise promise = new LoxPromise(loop);
+    final AsynchronousFileChannel channel;
+    final ByteBuffer buffer;
+    try {
+      channel = AsynchronousFileChannel.open(Path.of(path), StandardOpenOption.READ);
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        channel.close();
+        promise.reject(String.format("Failed to read '%s' (file too large)", path));
+        return promise;
+      }
+      buffer = ByteBuffer.allocate((int) size);
+    } catch (IOException | InvalidPathException e) {
+      promise.reject(AsyncIO.failure("read", path, e));
+      return promise;
+    }
+    loop.begin();
+    channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+      @Override
+      public void completed(Integer count, Void attachment) {
+        if (count >= 0 && buffer.hasRemaining()) {
+          channel.read(buffer, buffer.position(), null, this);
+          return;
+        }
+        AsyncIO.close(channel);
+        final String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        loop.complete(() -> promise.resolve(LoxString.of(text)));
+      }
+
+      @Override
+      public void failed(Throwable e, Void attachment) {
+        AsyncIO.close(channel);
+        loop.complete(() -> promise.reject(AsyncIO.failure("read", path, e)));
+      }
+    });
+    return promise;
+  }
+
+  public static LoxPromise writeFile(String path, String text) throws InterpreterException {
+    final EventLoop loop = EventLoop.current("writeFile");
+    final LoxPromise promise = new LoxPromise(loop);
+    final AsynchronousFileChannel channel;
+    try {
+      channel = AsynchronousFileChannel.open(Path.of(path), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING);
+    } catch (IOException | InvalidPathException e) {
+      promise.reject(AsyncIO.failure("write", path, e));
+      return promise;
+    }
+    final ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    loop.begin();
+    channel.write(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+      @Override
+      public void completed(Integer count, Void attachment) {
+        if (buffer.hasRemaining()) {
+          channel.write(buffer, buffer.position(), null, this);
+          return;
+        }
+        AsyncIO.close(channel);
+        loop.complete(() -> promise.resolve(LoxNil.NIL));
+      }
+
+      @Override
+      public void failed(Throwable e, Void attachment) {
+        AsyncIO.close(channel);
+        loop.complete(() -> promise.reject(AsyncIO.failure("write", path, e)));
+      }
+    });
+    return promise;
+  }
+
+  public static LoxPromise connect(String host, int port) throws InterpreterException {
+    final EventLoop loop = EventLoop.current("connect");
+    final LoxPromise promise = new LoxPromise(loop);
+    final String address = host + ":" + port;
+    final AsynchronousSocketChannel channel;
+    try {
+      channel = AsynchronousSocketChannel.open();
+    } catch (IOException e) {
+      promise.reject(AsyncIO.failure("connect to", address, e));
+      return promise;
+    }
+    final CompletionHandler<Void, Void> handler = new CompletionHandler<>() {
+      @Override
+      public void completed(Void result, Void attachment) {
+        loop.complete(() -> {
+          loop.own(channel);
+          promise.resolve(new LoxSocket(loop, channel));
+        });
+      }
+
+      @Override
+      public void failed(Throwable e, Void attachment) {
+        AsyncIO.close(channel);
+        loop.complete(() -> promise.reject(AsyncIO.failure("connect to", address, e)));
+      }
+    };
+    loop.begin();
+    try {
+      channel.connect(new InetSocketAddress(host, port), null, handler);
+    } catch (IllegalArgumentException e) {
+      // Unresolved host, or port out of range
+      handler.failed(e, null);
+    }
+    return promise;
+  }
+
+  public static String failure(String action, String target, Throwable e) {
+    return String.format("Failed to %s '%s' (%s)", action, target, e.getClass().getSimpleName());
+  }
+
+  public static void close(Closeable channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Nothing is left to report it to
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+import com.lox.ast.Expr;
+import com.lox.object.LoxObject;
+import com.lox.utils.Assumption;
+
+// Storage of a single variable. Closures share the cells of the variables
+// they capture with the scope that declared them.
+public class Cell {
+  private static final VarHandle VALUE;
+
+  static {
+    try {
+      VALUE = MethodHandles.lookup().findVarHandle(Cell.class, "value", LoxObject.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  // null while the variable is declared but not defined yet
+  public LoxObject value;
+  // Only for globals: holds until the variable is assigned after its
+  // definition, so that reading sites can cache its value
+  public final Assumption constant;
+  // Only for globals: the cache of the sites that read the variable, which
+  // they only hold weakly, so that it lives as long as the cell
+  private Expr.Variable.GlobalCache cache = null;
+
+  public Cell(LoxObject value) {
+    this(value, null);
+  }
+
+  public Cell(LoxObject value, Assumption constant) {
+    this.value = value;
+    this.constant = constant;
+  }
+
+  // Globals may be shared by tasks, which read them with get() and write them
+  // with assign(): a task that reads a value written by another one sees it
+  // fully built. Both are plain moves on x86.
+  public LoxObject get() {
+    return (LoxObject) VALUE.getAcquire(this);
+  }
+
+  public void assign(LoxObject value) {
+    VALUE.setRelease(this, value);
+    // Only the first assignment pays for the volatile write
+    if (this.constant != null && this.constant.isValid()) {
+      this.constant.invalidate();
+    }
+  }
+
+  // The cache of the sites that read this global of `globals`, once defined.
+  // Its value is only used while `constant` holds, so one cache fits all.
+  public synchronized Expr.Variable.GlobalCache cache(Environment globals) {
+    if (this.cache == null) {
+      this.cache = new Expr.Variable.GlobalCache(globals, this, this.constant, this.get());
+    }
+    return this.cache;
+  }
+
+  // Define the declared variable, unless another task defined it first
+  public boolean define(LoxObject value) {
+    return VALUE.compareAndSet(this, (LoxObject) null, value);
+  }
+}
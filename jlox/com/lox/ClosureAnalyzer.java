@@ -0,0 +1,202 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.lox.ast.Expr;
+import com.lox.ast.Stmt;
+import com.lox.ast.Token;
+import com.lox.ast.TokenType;
+import com.lox.ast.Stmt.FuncStmt;
+
+// Finds the free variables of functions: the names a function (or any function
+// nested in it) uses but doesn't declare. Only these have to be captured when
+// a closure is created.
+//
+// It also tells which functions have frames that can't be captured at all:
+// the ones that declare no function and no class.
+//
+// Scopes follow the interpreter: parameters live in their own scope, and every
+// declaration of a block is visible from the beginning of that block.
+public class ClosureAnalyzer {
+  private final List<Set<String>> scopes = new ArrayList<>();
+  private final Set<String> free = new LinkedHashSet<>();
+  private boolean hasNestedClosures = false;
+
+  private ClosureAnalyzer() {
+  }
+
+  public static List<String> freeVariables(FuncStmt func) {
+    List<String> res = func.freeVariables;
+    if (res == null) {
+      final ClosureAnalyzer analyzer = new ClosureAnalyzer();
+      analyzer.analyzeFunction(func);
+      res = List.copyOf(analyzer.free);
+      func.hasNestedClosures = analyzer.hasNestedClosures;
+      func.freeVariables = res;
+    }
+    return res;
+  }
+
+  // Whether no closure can ever capture a variable of a frame of `func`
+  public static boolean hasPrivateFrames(FuncStmt func) {
+    ClosureAnalyzer.freeVariables(func);
+    return !func.hasNestedClosures;
+  }
+
+  private void analyzeFunction(FuncStmt func) {
+    final Set<String> params = new HashSet<>();
+    for (Token param : func.params) {
+      params.add(param.lexeme);
+    }
+    this.scopes.add(params);
+    this.analyzeStmt(func.body);
+    this.scopes.remove(this.scopes.size() - 1);
+  }
+
+  private void analyzeStmt(Stmt stmt) {
+    switch (stmt) {
+      case Stmt.ExprStmt e -> this.analyzeExpr(e.expr);
+      case Stmt.PrintStmt p -> this.analyzeExpr(p.expr);
+      case Stmt.ReturnStmt r -> this.analyzeExpr(r.expr);
+      case Stmt.DeclStmt d -> {
+        if (d.expr != null) {
+          this.analyzeExpr(d.expr);
+        }
+      }
+      case Stmt.IfStmt i -> {
+        this.analyzeExpr(i.cond);
+        this.analyzeScoped(i.thenBranch);
+        if (i.elseBranch != null) {
+          this.analyzeScoped(i.elseBranch);
+        }
+      }
+      case Stmt.WhileStmt w -> {
+        this.analyzeExpr(w.cond);
+        this.analyzeScoped(w.body);
+      }
+      case Stmt.ForStmt f -> {
+        this.scopes.add(ClosureAnalyzer.declaredNames(f.init));
+        this.analyzeStmt(f.init);
+        this.analyzeStmt(f.cond);
+        this.analyzeExpr(f.post);
+        this.analyzeScoped(f.body);
+        this.scopes.remove(this.scopes.size() - 1);
+      }
+      case Stmt.BlockStmt b -> {
+        final Set<String> declared = new HashSet<>();
+        for (Stmt s : b.stmts) {
+          declared.addAll(ClosureAnalyzer.declaredNames(s));
+        }
+        this.scopes.add(declared);
+        for (Stmt s : b.stmts) {
+          this.analyzeStmt(s);
+        }
+        this.scopes.remove(this.scopes.size() - 1);
+      }
+      case Stmt.FuncStmt f -> this.analyzeNestedFunction(f);
+      case Stmt.ClsStmt c -> {
+        this.hasNestedClosures = true;
+        if (c.supercls != null) {
+          this.reference(c.supercls.lexeme);
+        }
+        for (FuncStmt method : c.methods) {
+          this.analyzeNestedFunction(method);
+        }
+      }
+      default -> throw new Error("Non-exhaustive check");
+    }
+  }
+
+  private void analyzeExpr(Expr expr) {
+    switch (expr) {
+      case Expr.Binary b -> {
+        if (b.op.type == TokenType.EQUAL) {
+          this.reference(((Expr.Variable) b.left).var.lexeme);
+        } else {
+          this.analyzeExpr(b.left);
+        }
+        this.analyzeExpr(b.right);
+      }
+      case Expr.Unary u -> this.analyzeExpr(u.inner);
+      case Expr.Grouping g -> this.analyzeExpr(g.inner);
+      case Expr.Literal l -> {
+      }
+      case Expr.Variable v -> this.reference(v.var.lexeme);
+      case Expr.This t -> this.reference(SpecialSymbols.THIS_OBJECT);
+      case Expr.Call c -> {
+        this.analyzeExpr(c.callee);
+        for (Expr param : c.params) {
+          this.analyzeExpr(param);
+        }
+      }
+      case Expr.Get g -> this.analyzeExpr(g.object);
+      case Expr.Set s -> {
+        this.analyzeExpr(s.value);
+        this.analyzeExpr(s.object);
+      }
+      case Expr.SuperGet s -> {
+        this.reference(SpecialSymbols.SUPER_CLASS);
+        this.reference(SpecialSymbols.THIS_OBJECT);
+      }
+      case Expr.SuperCall s -> {
+        this.reference(SpecialSymbols.SUPER_CLASS);
+        this.reference(SpecialSymbols.THIS_OBJECT);
+        for (Expr param : s.params) {
+          this.analyzeExpr(param);
+        }
+      }
+      case Expr.VarIncrement v -> {
+        this.reference(v.var.var.lexeme);
+        this.analyzeExpr(v.delta);
+      }
+      case Expr.VarCompare v -> {
+        this.reference(v.var.var.lexeme);
+        this.analyzeExpr(v.right);
+      }
+      case Expr.FieldIncrement f -> {
+        this.analyzeExpr(f.object);
+        this.analyzeExpr(f.delta);
+      }
+      default -> throw new Error("Non-exhaustive check");
+    }
+  }
+
+  // Branches and loop bodies get their own scope
+  private void analyzeScoped(Stmt stmt) {
+    this.scopes.add(ClosureAnalyzer.declaredNames(stmt));
+    this.analyzeStmt(stmt);
+    this.scopes.remove(this.scopes.size() - 1);
+  }
+
+  private void analyzeNestedFunction(FuncStmt func) {
+    this.hasNestedClosures = true;
+    for (String name : ClosureAnalyzer.freeVariables(func)) {
+      this.reference(name);
+    }
+  }
+
+  private void reference(String name) {
+    for (Set<String> scope : this.scopes) {
+      if (scope.contains(name)) {
+        return;
+      }
+    }
+    this.free.add(name);
+  }
+
+  private static Set<String> declaredNames(Stmt stmt) {
+    final Set<String> names = new HashSet<>();
+    switch (stmt) {
+      case Stmt.DeclStmt d -> names.add(d.id.lexeme);
+      case Stmt.FuncStmt f -> names.add(f.name.lexeme);
+      case Stmt.ClsStmt c -> names.add(c.name.lexeme);
+      default -> {
+      }
+    }
+    return names;
+  }
+}
@@ -0,0 +1,29 @@
+package com.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.lox.ast.Token;
+import com.lox.object.LoxBoolean;
+import com.lox.object.LoxNil;
+import com.lox.object.LoxNumber;
+import com.lox.object.LoxObject;
+import com.lox.object.LoxString;
+
+// Builds the runtime values of literal tokens once, so that evaluating a
+// literal doesn't allocate. Identical literals share the same value, which is
+// safe because numbers and strings are immutable. Strings are shared through
+// the runtime-wide intern table of LoxString.
+public class ConstantPool {
+  private final Map<Double, LoxNumber> numbers = new HashMap<>();
+
+  public LoxObject constantOf(Token token) {
+    return switch (token.literal) {
+      case null -> LoxNil.NIL;
+      case Double d -> this.numbers.computeIfAbsent(d, LoxNumber::new);
+      case String s -> LoxString.of(s);
+      case Boolean b -> b ? LoxBoolean.TRUE : LoxBoolean.FALSE;
+      default -> throw new Error(String.format("Unreachable: Unexpected literal type"));
+    };
+  }
+}
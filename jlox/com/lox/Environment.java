@@ -1,21 +1,33 @@
 package com.lox;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.lox.object.LoxBoolean;
+import com.lox.object.LoxChannel;
+import com.lox.object.LoxClass;
 import com.lox.object.LoxFunction;
+import com.lox.object.LoxGenerator;
+import com.lox.object.LoxList;
+import com.lox.object.LoxNil;
 import com.lox.object.LoxNumber;
 import com.lox.object.LoxObject;
 import com.lox.object.LoxString;
+import com.lox.object.LoxTask;
+import com.lox.utils.Assumption;
 
 public class Environment {
   // This is for the sole purpose of creating a global environment
   private Environment() {
     this.parent = null;
     this.globals = this;
-    this.values = new HashMap<>();
+    // Tasks of a script may declare globals while others read them
+    this.values = new ConcurrentHashMap<>();
   }
 
   public static Environment createGlobals() throws InterpreterException {
@@ -27,7 +39,7 @@ public class Environment {
       }
 
       @Override
-      public LoxObject call(List<LoxObject> arguments) {
+      public LoxObject call() {
         return new LoxNumber((double) System.currentTimeMillis() / 1000.0);
       }
     });
@@ -39,8 +51,198 @@ public class Environment {
       }
 
       @Override
-      public LoxObject call(List<LoxObject> arguments) {
-        return new LoxString(arguments.get(0).toString());
+      public LoxObject call(LoxObject value) {
+        return LoxString.of(value.toString());
+      }
+    });
+
+    globals.define("spawn", new LoxFunction.LoxForeignFunction("spawn") {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public boolean allocates() {
+        return true;
+      }
+
+      @Override
+      public LoxObject call(LoxObject function) throws InterpreterException {
+        if (!(function instanceof LoxFunction f) || f.arity() != 0) {
+          throw new InterpreterException("Can only spawn a function that takes no argument");
+        }
+        return LoxTask.spawn(f);
+      }
+    });
+
+    globals.define("Channel", new LoxFunction.LoxForeignFunction("Channel") {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public boolean allocates() {
+        return true;
+      }
+
+      @Override
+      public LoxObject call(LoxObject capacity) throws InterpreterException {
+        if (!(capacity instanceof LoxNumber n) || n.value < 1 || n.value != Math.floor(n.value)) {
+          throw new InterpreterException("Channel capacity must be a positive integer");
+        }
+        return new LoxChannel((int) Math.min(n.value, Integer.MAX_VALUE));
+      }
+    });
+
+    globals.define("List", new LoxFunction.LoxForeignFunction("List") {
+      @Override
+      public int arity() {
+        return 0;
+      }
+
+      @Override
+      public boolean allocates() {
+        return true;
+      }
+
+      @Override
+      public LoxObject call() {
+        return new LoxList();
+      }
+    });
+
+    globals.define("parallelMap", new LoxFunction.LoxForeignFunction("parallelMap") {
+      @Override
+      public int arity() {
+        return 2;
+      }
+
+      @Override
+      public boolean allocates() {
+        return true;
+      }
+
+      @Override
+      public LoxObject call(LoxObject list, LoxObject fn) throws InterpreterException {
+        return Parallel.map(Environment.expectList(list), Environment.expectFunction(fn, 1));
+      }
+    });
+
+    globals.define("parallelReduce", new LoxFunction.LoxForeignFunction("parallelReduce") {
+      @Override
+      public int arity() {
+        return 3;
+      }
+
+      @Override
+      public LoxObject call(LoxObject list, LoxObject fn, LoxObject init) throws InterpreterException {
+        return Parallel.reduce(Environment.expectList(list), Environment.expectFunction(fn, 2), init);
+      }
+    });
+
+    globals.define("parallelFor", new LoxFunction.LoxForeignFunction("parallelFor") {
+      @Override
+      public int arity() {
+        return 3;
+      }
+
+      @Override
+      public LoxObject call(LoxObject lo, LoxObject hi, LoxObject fn) throws InterpreterException {
+        if (!(lo instanceof LoxNumber l) || !(hi instanceof LoxNumber h)) {
+          throw new InterpreterException("Bounds of parallelFor must be numbers");
+        }
+        return Parallel.forRange(l.value, h.value, Environment.expectFunction(fn, 1));
+      }
+    });
+
+    globals.define("Generator", new LoxFunction.LoxForeignFunction("Generator") {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public boolean allocates() {
+        return true;
+      }
+
+      @Override
+      public LoxObject call(LoxObject function) throws InterpreterException {
+        return new LoxGenerator(Environment.expectFunction(function, 1));
+      }
+    });
+
+    globals.define("setTimeout", new LoxFunction.LoxForeignFunction("setTimeout") {
+      @Override
+      public int arity() {
+        return 2;
+      }
+
+      @Override
+      public boolean allocates() {
+        return true;
+      }
+
+      @Override
+      public LoxObject call(LoxObject fn, LoxObject millis) throws InterpreterException {
+        return AsyncIO.setTimeout(Environment.expectFunction(fn, 0), Environment.expectNumber(millis));
+      }
+    });
+
+    globals.define("readFile", new LoxFunction.LoxForeignFunction("readFile") {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public boolean allocates() {
+        return true;
+      }
+
+      @Override
+      public LoxObject call(LoxObject path) throws InterpreterException {
+        return AsyncIO.readFile(Environment.expectString(path));
+      }
+    });
+
+    globals.define("writeFile", new LoxFunction.LoxForeignFunction("writeFile") {
+      @Override
+      public int arity() {
+        return 2;
+      }
+
+      @Override
+      public boolean allocates() {
+        return true;
+      }
+
+      @Override
+      public LoxObject call(LoxObject path, LoxObject text) throws InterpreterException {
+        return AsyncIO.writeFile(Environment.expectString(path), Environment.expectString(text));
+      }
+    });
+
+    globals.define("connect", new LoxFunction.LoxForeignFunction("connect") {
+      @Override
+      public int arity() {
+        return 2;
+      }
+
+      @Override
+      public boolean allocates() {
+        return true;
+      }
+
+      @Override
+      public LoxObject call(LoxObject host, LoxObject port) throws InterpreterException {
+        final double p = Environment.expectNumber(port);
+        if (p != Math.floor(p) || p < 0 || p > 65535) {
+          throw new InterpreterException("Port must be an integer between 0 and 65535");
+        }
+        return AsyncIO.connect(Environment.expectString(host), (int) p);
       }
     });
 
@@ -52,9 +254,83 @@ public class Environment {
     return globals;
   }
 
-  public final Environment parent;
-  private final Environment globals;
-  private final Map<String, LoxObject> values;
+  private static LoxList expectList(LoxObject value) throws InterpreterException {
+    if (!(value instanceof LoxList list)) {
+      throw new InterpreterException("Expected a list");
+    }
+    return list;
+  }
+
+  private static String expectString(LoxObject value) throws InterpreterException {
+    if (!(value instanceof LoxString s)) {
+      throw new InterpreterException("Expected a string");
+    }
+    return s.value;
+  }
+
+  private static double expectNumber(LoxObject value) throws InterpreterException {
+    if (!(value instanceof LoxNumber n)) {
+      throw new InterpreterException("Expected a number");
+    }
+    return n.value;
+  }
+
+  private static LoxFunction expectFunction(LoxObject value, int arity) throws InterpreterException {
+    if (!(value instanceof LoxFunction fn) || fn.arity() != arity) {
+      throw new InterpreterException(String.format("Expected a function of %s argument(s)", arity));
+    }
+    return fn;
+  }
+
+  // Copy of these globals, for another isolate to start from. Functions and
+  // classes declared at the top level are rebound to the copy. Every other
+  // value ends up shared by both, so it must be immutable.
+  public Environment copyGlobals() throws InterpreterException {
+    if (this != this.globals) {
+      throw new Error("Only globals can be copied");
+    }
+    final Environment copy = new Environment();
+    final Map<LoxClass, LoxClass> classes = new IdentityHashMap<>();
+    for (Map.Entry<String, Cell> entry : this.values.entrySet()) {
+      final LoxObject value = entry.getValue().get();
+      final LoxObject rebound = value == null ? null : this.rebind(entry.getKey(), value, copy, classes);
+      copy.values.put(entry.getKey(), copy.newCell(rebound));
+    }
+    return copy;
+  }
+
+  private LoxObject rebind(String name, LoxObject value, Environment copy, Map<LoxClass, LoxClass> classes)
+      throws InterpreterException {
+    return switch (value) {
+      case LoxNumber n -> n;
+      case LoxString s -> s;
+      case LoxBoolean b -> b;
+      case LoxNil n -> n;
+      case LoxFunction.LoxForeignFunction f -> f;
+      case LoxFunction.LoxUserFunction f when f.enclosingEnv == this -> new LoxFunction.LoxUserFunction(f.node, copy);
+      case LoxClass c when c.isBuiltin -> c;
+      case LoxClass c when !c.hasFields() -> {
+        LoxClass res = classes.get(c);
+        if (res == null) {
+          final List<LoxFunction> methods = new ArrayList<>();
+          for (LoxFunction method : c.methods.values()) {
+            methods.add((LoxFunction) this.rebind(name, method, copy, classes));
+          }
+          res = new LoxClass(c.name, (LoxClass) this.rebind(name, c.supercls, copy, classes), methods);
+          classes.put(c, res);
+        }
+        yield res;
+      }
+      default -> throw new InterpreterException(String.format("Global '%s' holds mutable state and can't be copied", name));
+    };
+  }
+
+  // Not final, so that pooled frames can be reused (see FramePool)
+  public Environment parent;
+  private Environment globals;
+  private final Map<String, Cell> values;
+  // Only for globals: where `print` writes, or null for System.out
+  private volatile PrintStream output = null;
 
   public Environment(Environment parent) {
     this.parent = parent;
@@ -65,26 +341,78 @@ public class Environment {
   public Environment(Environment parent, Map<String, LoxObject> symbols) {
     this.parent = parent;
     this.globals = this.parent.globals;
-    this.values = symbols;
+    this.values = new HashMap<>();
+    for (Map.Entry<String, LoxObject> symbol : symbols.entrySet()) {
+      this.values.put(symbol.getKey(), new Cell(symbol.getValue()));
+    }
+  }
+
+  // Where `print` writes in every scope of these globals, including those of
+  // the tasks and callbacks that share them
+  public PrintStream output() {
+    final PrintStream output = this.globals.output;
+    return output == null ? System.out : output;
+  }
+
+  public void setOutput(PrintStream output) {
+    if (this != this.globals) {
+      throw new Error("Only globals have an output");
+    }
+    this.output = output;
+  }
+
+  // Turn this environment into an empty scope under `parent`
+  void reset(Environment parent) {
+    this.parent = parent;
+    this.globals = parent.globals;
+    this.values.clear();
+  }
+
+  // Turn this environment into an empty scope under nothing, until the next
+  // `reset`
+  void detach() {
+    this.parent = null;
+    this.globals = null;
+    this.values.clear();
+  }
+
+  // Create the environment of a closure: it only holds the cells of `names`
+  // that are found in the non-global scopes of this environment, everything
+  // else is looked up in the globals
+  public Environment capture(List<String> names) {
+    if (this == this.globals) {
+      return this;
+    }
+    final Environment closure = new Environment(this.globals);
+    for (String name : names) {
+      for (Environment env = this; env != this.globals; env = env.parent) {
+        final Cell cell = env.values.get(name);
+        if (cell != null) {
+          closure.values.put(name, cell);
+          break;
+        }
+      }
+    }
+    return closure;
   }
 
   // Declare that an identifier exists in this environment, but its value is not
   // defined yet
   // var x = 3; is equivalent to env.declare("x"); env.assign("x", 3);
   public void declare(String name) throws InterpreterException {
-    if (values.containsKey(name)) {
+    if (this.values.putIfAbsent(name, this.newCell(null)) != null) {
       throw new InterpreterException("Redeclared variable '" + name + "'");
     }
-    this.values.put(name, null);
   }
 
   public void assign(String name, LoxObject value) throws InterpreterException {
     for (Environment env = this; env != null; env = env.parent) {
-      if (env.values.containsKey(name)) {
-        if (!env.isDefined(name)) {
+      final Cell cell = env.values.get(name);
+      if (cell != null) {
+        if (cell.get() == null) {
           throw new InterpreterException("Variable '" + name + "' used before defined");
         }
-        env.values.put(name, value);
+        cell.assign(value);
         return;
       }
     }
@@ -92,25 +420,77 @@ public class Environment {
   }
 
   public void define(String name, LoxObject value) throws InterpreterException {
-    if (this.isDefined(name)) {
+    if (this == this.globals) {
+      // Tasks may race to define the same global: only one of them wins
+      final Cell cell = this.values.putIfAbsent(name, this.newCell(value));
+      if (cell != null && !cell.define(value)) {
+        throw new InterpreterException("Redeclared variable '" + name + "'");
+      }
+      return;
+    }
+    final Cell cell = this.values.get(name);
+    if (cell == null) {
+      this.values.put(name, this.newCell(value));
+      return;
+    }
+    if (cell.value != null) {
       throw new InterpreterException("Redeclared variable '" + name + "'");
     }
-    this.values.put(name, value);
+    cell.value = value;
   }
 
   public LoxObject get(String name) throws InterpreterException {
     for (Environment env = this; env != null; env = env.parent) {
-      if (env.values.containsKey(name)) {
-        if (!env.isDefined(name)) {
+      final Cell cell = env.values.get(name);
+      if (cell != null) {
+        final LoxObject value = cell.get();
+        if (value == null) {
           throw new InterpreterException("Variable '" + name + "' used before defined");
         }
-        return env.values.get(name);
+        return value;
       }
     }
     throw new InterpreterException("Undefined variable '" + name + "'");
   }
 
+  public Environment globals() {
+    return this.globals;
+  }
+
+  // The cell of `name` if it is a global variable, or null if it is a local one
+  public Cell globalCellOf(String name) throws InterpreterException {
+    for (Environment env = this; env != null; env = env.parent) {
+      final Cell cell = env.values.get(name);
+      if (cell != null) {
+        return env == this.globals ? cell : null;
+      }
+    }
+    throw new InterpreterException("Undefined variable '" + name + "'");
+  }
+
+  // The cell of the global `name`, or null if these globals don't have it.
+  // The map of globals is concurrent, so this doesn't lock.
+  public Cell globalCell(String name) {
+    return this.values.get(name);
+  }
+
+  // The cell of `name`, which may hold null if the variable isn't defined yet
+  public Cell cellOf(String name) throws InterpreterException {
+    for (Environment env = this; env != null; env = env.parent) {
+      final Cell cell = env.values.get(name);
+      if (cell != null) {
+        return cell;
+      }
+    }
+    throw new InterpreterException("Undefined variable '" + name + "'");
+  }
+
+  private Cell newCell(LoxObject value) {
+    return new Cell(value, this == this.globals ? new Assumption() : null);
+  }
+
   public boolean isDefined(String name) {
-    return this.values.containsKey(name) && this.values.get(name) != null;
+    final Cell cell = this.values.get(name);
+    return cell != null && cell.get() != null;
   }
 }
@@ -0,0 +1,186 @@
+package com.lox;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.lox.object.LoxObject;
+import com.lox.object.LoxPromise;
+
+// Runs the callbacks of the asynchronous natives (setTimeout, readFile,
+// connect, ...) on the thread of the script that started them, one at a time.
+// Every run of an isolate and every task gets its own loop: once the script
+// itself is done, the loop runs callbacks as their operations complete, until
+// no timer or operation is left.
+//
+// Operations complete on other threads (timers excepted), which only post a
+// job to the loop. So promises and everything callbacks touch are only used
+// from the loop's thread, and an interpreter thread can have any number of
+// operations outstanding without blocking.
+public class EventLoop {
+  private static final ThreadLocal<EventLoop> current = new ThreadLocal<>();
+
+  public interface Job {
+    void run() throws InterpreterException;
+  }
+
+  public interface Body {
+    LoxObject run() throws InterpreterException;
+  }
+
+  private record Timer(long due, long seq, Job job) implements Comparable<Timer> {
+    @Override
+    public int compareTo(Timer other) {
+      final int res = Long.compare(this.due, other.due);
+      return res != 0 ? res : Long.compare(this.seq, other.seq);
+    }
+  }
+
+  public final Interpreter interpreter;
+  // Posted from any thread
+  private final BlockingQueue<Job> ready = new LinkedBlockingQueue<>();
+  // Only used by the loop's thread
+  private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+  private long timerCount = 0;
+  private int pending = 0;
+  private final Set<LoxPromise> unhandled = new LinkedHashSet<>();
+  private final List<Closeable> resources = new ArrayList<>();
+
+  private EventLoop(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  // Whether this is the loop of the running thread. Nothing synchronizes
+  // with a loop but `post`, so only its own thread may use its promises and
+  // sockets.
+  public boolean isCurrent() {
+    return EventLoop.current.get() == this;
+  }
+
+  // Run `body` in a new loop on this thread, then the loop until it is empty.
+  // Within a running loop, `body` simply runs in it.
+  public static LoxObject run(Interpreter interpreter, Body body) throws InterpreterException {
+    if (EventLoop.current.get() != null) {
+      return body.run();
+    }
+    final EventLoop loop = new EventLoop(interpreter);
+    EventLoop.current.set(loop);
+    try {
+      final LoxObject res = body.run();
+      while (loop.runOnce()) {
+      }
+      loop.checkUnhandled();
+      return res;
+    } finally {
+      EventLoop.current.remove();
+      for (Closeable resource : loop.resources) {
+        AsyncIO.close(resource);
+      }
+    }
+  }
+
+  public static EventLoop current(String name) throws InterpreterException {
+    final EventLoop loop = EventLoop.current.get();
+    if (loop == null) {
+      throw new InterpreterException(String.format("'%s' needs an event loop, which this thread doesn't have", name));
+    }
+    return loop;
+  }
+
+  // Run `job` on the loop once `millis` have passed
+  public void schedule(double millis, Job job) {
+    final long delay = (long) (Math.max(0, millis) * 1_000_000);
+    this.timers.add(new Timer(System.nanoTime() + delay, this.timerCount++, job));
+  }
+
+  // Run `job` on the loop as soon as possible
+  public void post(Job job) {
+    this.ready.add(job);
+  }
+
+  // Close `resource` when the loop is done, if the script didn't
+  public void own(Closeable resource) {
+    this.resources.add(resource);
+  }
+
+  // Start an operation that completes on another thread: the loop keeps
+  // running until the operation calls `complete`
+  public void begin() {
+    this.pending += 1;
+  }
+
+  // Called from any thread, once for each `begin`
+  public void complete(Job job) {
+    this.ready.add(() -> {
+      this.pending -= 1;
+      job.run();
+    });
+  }
+
+  // Promises rejected while nothing handles them fail the run if nothing
+  // handled them by the time the loop is empty
+  public void rejected(LoxPromise promise) {
+    this.unhandled.add(promise);
+  }
+
+  public void handled(LoxPromise promise) {
+    this.unhandled.remove(promise);
+  }
+
+  // Run the next job, waiting for it if needed. False if there is nothing
+  // left to wait for.
+  public boolean runOnce() throws InterpreterException {
+    final Job job = this.next();
+    if (job == null) {
+      return false;
+    }
+    job.run();
+    return true;
+  }
+
+  // Timers that are due go first, so that a busy loop can't delay them forever.
+  // Waits end at the time limit of the interpreter's budget, if any.
+  private Job next() throws InterpreterException {
+    try {
+      while (true) {
+        this.interpreter.checkTime();
+        final Timer timer = this.timers.peek();
+        final long wait = timer == null ? 0 : timer.due - System.nanoTime();
+        if (timer != null && wait <= 0) {
+          this.timers.poll();
+          return timer.job;
+        }
+        final Job job = this.ready.poll();
+        if (job != null) {
+          return job;
+        }
+        if (timer == null && this.pending == 0) {
+          return null;
+        }
+        final long timeLeft = this.interpreter.timeLeft();
+        try (Scheduler.Blocking blocking = Scheduler.blocking()) {
+          final Job posted = timer == null && timeLeft == Long.MAX_VALUE ? this.ready.take()
+              : this.ready.poll(Math.min(timer == null ? Long.MAX_VALUE : wait, timeLeft), TimeUnit.NANOSECONDS);
+          if (posted != null) {
+            return posted;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterpreterException("Interrupted while waiting for events");
+    }
+  }
+
+  private void checkUnhandled() throws InterpreterException {
+    if (!this.unhandled.isEmpty()) {
+      throw new InterpreterException(this.unhandled.iterator().next().error());
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.lox;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Limits on a single run: how many steps it takes, how many objects it
+// allocates, and how long it lasts. A run that exceeds one of them fails with
+// an InterpreterException, which unwinds it like any other Lox error.
+//
+// A step is a loop iteration or a call of a user function. Allocations are
+// the instances, functions and classes the run creates, and the calls of
+// natives that build or grow containers (List(), push, Channel(), spawn, ...).
+// The time limit runs from the start of the run, so it includes the time the
+// run waits for a carrier or blocks in natives.
+//
+// Steps and time are checked at the interpreter's safepoints, at most every
+// CHECK_INTERVAL steps and exactly at the step limit. Threads that don't reach
+// safepoints, e.g. blocked on a channel, are stopped at the time limit by
+// cancelling the group of the run (see TaskGroup). The tasks a run spawns
+// are charged to its budget, so the counters are shared by several threads,
+// and a step limit reached by several of them at once may be overshot by a
+// few intervals.
+public class ExecutionBudget implements Safepoint {
+  public static final long UNLIMITED = Long.MAX_VALUE;
+  private static final int CHECK_INTERVAL = 1024;
+
+  public final long maxSteps;
+  public final long maxAllocations;
+  // null for no time limit
+  public final Duration timeout;
+
+  private final AtomicLong steps = new AtomicLong();
+  private final AtomicLong allocations = new AtomicLong();
+  private volatile long deadline = Long.MAX_VALUE;
+
+  public ExecutionBudget(long maxSteps, long maxAllocations, Duration timeout) {
+    this.maxSteps = maxSteps;
+    this.maxAllocations = maxAllocations;
+    this.timeout = timeout;
+  }
+
+  public long steps() {
+    return this.steps.get();
+  }
+
+  public long allocations() {
+    return this.allocations.get();
+  }
+
+  void start() {
+    this.steps.set(0);
+    this.allocations.set(0);
+    if (this.timeout != null) {
+      this.deadline = System.nanoTime() + this.timeout.toNanos();
+    }
+  }
+
+  // Cancel `group` once the time limit passes
+  void watch(TaskGroup group) {
+    if (this.timeout != null) {
+      group.cancelAfter(this.timeout, this.timeLimitError());
+    }
+  }
+
+  // Nanoseconds left before the time limit, or Long.MAX_VALUE if there is none
+  long timeLeft() {
+    return this.timeout == null ? Long.MAX_VALUE : this.deadline - System.nanoTime();
+  }
+
+  void checkTime() throws InterpreterException {
+    if (this.timeout != null && System.nanoTime() - this.deadline > 0) {
+      throw new InterpreterException(this.timeLimitError());
+    }
+  }
+
+  private String timeLimitError() {
+    return String.format("Time limit of %sms exceeded", this.timeout.toMillis());
+  }
+
+  void allocate() throws InterpreterException {
+    if (this.allocations.incrementAndGet() > this.maxAllocations) {
+      throw new InterpreterException(String.format("Allocation limit of %s exceeded", this.maxAllocations));
+    }
+  }
+
+  @Override
+  public int interval() {
+    return (int) Math.max(0, Math.min(CHECK_INTERVAL, this.maxSteps - this.steps.get())) + 1;
+  }
+
+  @Override
+  public void reached(int polls) throws InterpreterException {
+    if (this.steps.addAndGet(polls) > this.maxSteps) {
+      throw new InterpreterException(String.format("Step limit of %s exceeded", this.maxSteps));
+    }
+    this.checkTime();
+  }
+}
@@ -0,0 +1,43 @@
+package com.lox;
+
+// A stack of Environments that are reused for the frames of functions whose
+// variables can't be captured (see ClosureAnalyzer.hasPrivateFrames). Calls
+// are nested, so frames are acquired and released in LIFO order and the pool
+// is just an array and a top index.
+//
+// Each interpreter owns one, so that the pool outlives the threads the
+// interpreter runs on (e.g. a virtual thread per run, see LoxExecutor).
+public class FramePool {
+  private Environment[] frames = new Environment[64];
+  private int top = 0;
+
+  public Environment acquire(Environment parent) {
+    if (this.top == this.frames.length) {
+      final Environment[] frames = new Environment[this.frames.length * 2];
+      System.arraycopy(this.frames, 0, frames, 0, this.frames.length);
+      this.frames = frames;
+    }
+    Environment env = this.frames[this.top];
+    if (env == null) {
+      env = new Environment(parent);
+      this.frames[this.top] = env;
+    } else {
+      env.reset(parent);
+    }
+    this.top += 1;
+    return env;
+  }
+
+  // Release the `count` most recently acquired frames
+  public void release(int count) {
+    this.top -= count;
+  }
+
+  // Drop what the released frames still refer to, so that an idle pool
+  // doesn't keep the heap of the last run alive
+  public void clear() {
+    for (int i = this.top; i < this.frames.length && this.frames[i] != null; ++i) {
+      this.frames[i].detach();
+    }
+  }
+}
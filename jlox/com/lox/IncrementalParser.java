@@ -0,0 +1,303 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.lox.ast.Stmt;
+import com.lox.ast.Token;
+import com.lox.utils.Pair;
+
+// Keeps the syntax tree of an edited buffer up to date by re-scanning and
+// re-parsing only the top-level declarations that an edit touches.
+//
+// Top-level declarations are independent of each other as far as the scanner
+// and the parser are concerned: each one starts right after the `;` or `}`
+// that ends the previous one. Therefore, an edit can only damage the
+// declarations it overlaps (or touches), and all the others are reused as-is,
+// by identity.
+//
+// The damaged range is re-parsed on its own. If that fails (scanner or parser
+// errors, or a comment that would run into the next declaration), the whole
+// buffer is re-parsed instead, so the result is always the same as a full
+// parse. While the buffer has errors, every edit falls back to a full parse.
+//
+// Besides re-scanning the damaged range, an edit costs time linear in its
+// distance from the previous edit, not in the size of the buffer: the text is
+// kept in a gap buffer, and the spans after an edit are shifted lazily (see
+// `shiftFrom`). Re-scanning is still by top-level declaration, so an edit
+// inside a large function re-parses all of it.
+//
+// Note: tokens inside reused statements keep the offsets they were scanned
+// with. The up-to-date span of a statement is given by `spanOf`.
+public class IncrementalParser {
+  private final GapBuffer buffer;
+  private final List<Stmt> stmts = new ArrayList<>();
+  // Character span [startOffset, endOffset) of each statement in `stmts`
+  private final List<Span> spans = new ArrayList<>();
+  // The spans from index `shiftFrom` on are stored `shift` characters before
+  // where they are. An edit only updates the spans between it and the
+  // previous edit, and adds its own shift to `shift`.
+  private int shiftFrom = 0;
+  private int shift = 0;
+  private List<ScannerException> scannerErrors = new ArrayList<>();
+  private List<ParserException> parserErrors = new ArrayList<>();
+
+  public IncrementalParser(String source) {
+    this.buffer = new GapBuffer(source);
+    this.parseAll();
+  }
+
+  // Builds the text, in time linear in its length
+  public String source() {
+    return this.buffer.toString();
+  }
+
+  public List<Stmt> stmts() {
+    return Collections.unmodifiableList(this.stmts);
+  }
+
+  public List<ScannerException> scannerErrors() {
+    return this.scannerErrors;
+  }
+
+  public List<ParserException> parserErrors() {
+    return this.parserErrors;
+  }
+
+  public boolean hasErrors() {
+    return this.scannerErrors.size() > 0 || this.parserErrors.size() > 0;
+  }
+
+  public Pair<Integer, Integer> spanOf(int stmtIndex) {
+    return new Pair<>(this.startOf(stmtIndex), this.endOf(stmtIndex));
+  }
+
+  // Replace `removedLength` characters at `offset` with `insertedText`
+  public void edit(int offset, int removedLength, String insertedText) {
+    if (offset < 0 || removedLength < 0 || offset + removedLength > this.buffer.length()) {
+      throw new IllegalArgumentException("Edit is out of the source range");
+    }
+
+    final int oldLength = this.buffer.length();
+    this.buffer.replace(offset, removedLength, insertedText);
+
+    if (this.hasErrors()) {
+      this.parseAll();
+      return;
+    }
+
+    final int delta = insertedText.length() - removedLength;
+    final int editEnd = offset + removedLength;
+
+    // [first, last) are the damaged statements: the ones overlapping or touching the edit
+    final int first = this.firstSpanEndingAtOrAfter(offset);
+    final int last = this.firstSpanStartingAfter(editEnd);
+    final int regionStart = first > 0 ? this.endOf(first - 1) : 0;
+    final int regionEnd = (last < this.spans.size() ? this.startOf(last) : oldLength) + delta;
+
+    final Pair<List<Token>, List<ScannerException>> scannerRes = new Scanner(this.buffer, regionStart, regionEnd)
+        .tokenize();
+    if (scannerRes.second.size() > 0) {
+      this.parseAll();
+      return;
+    }
+    final Parser parser = new Parser(scannerRes.first);
+    final Pair<List<Stmt>, List<ParserException>> parserRes = parser.parse();
+    if (parserRes.second.size() > 0) {
+      this.parseAll();
+      return;
+    }
+
+    final List<Span> newSpans = new ArrayList<>();
+    for (Pair<Token, Token> bounds : parser.topLevelBounds()) {
+      newSpans.add(new Span(bounds.first.startOffset, bounds.second.endOffset));
+    }
+
+    // The spans after the damaged ones take the shift of this edit as well
+    this.moveShift(last);
+    IncrementalParser.replace(this.stmts, first, last, parserRes.first);
+    IncrementalParser.replace(this.spans, first, last, newSpans);
+    this.shiftFrom = first + newSpans.size();
+    this.shift += delta;
+  }
+
+  private void parseAll() {
+    this.stmts.clear();
+    this.spans.clear();
+    this.shiftFrom = 0;
+    this.shift = 0;
+
+    final Pair<List<Token>, List<ScannerException>> scannerRes = new Scanner(this.buffer).tokenize();
+    this.scannerErrors = scannerRes.second;
+    if (scannerRes.second.size() > 0) {
+      this.parserErrors = new ArrayList<>();
+      return;
+    }
+
+    final Parser parser = new Parser(scannerRes.first);
+    final Pair<List<Stmt>, List<ParserException>> parserRes = parser.parse();
+    this.parserErrors = parserRes.second;
+    this.stmts.addAll(parserRes.first);
+    for (Pair<Token, Token> bounds : parser.topLevelBounds()) {
+      this.spans.add(new Span(bounds.first.startOffset, bounds.second.endOffset));
+    }
+  }
+
+  private int startOf(int index) {
+    return this.spans.get(index).startOffset + (index >= this.shiftFrom ? this.shift : 0);
+  }
+
+  private int endOf(int index) {
+    return this.spans.get(index).endOffset + (index >= this.shiftFrom ? this.shift : 0);
+  }
+
+  // Make `index` the first span with the pending shift, by applying it to the
+  // spans that leave the shifted range, or taking it off those that enter it
+  private void moveShift(int index) {
+    for (int i = this.shiftFrom; i < index; ++i) {
+      this.spans.get(i).shift(this.shift);
+    }
+    for (int i = index; i < this.shiftFrom; ++i) {
+      this.spans.get(i).shift(-this.shift);
+    }
+    this.shiftFrom = index;
+  }
+
+  // Replace [from, to) in `list` with `items`. The elements after them only
+  // move if the number of elements changes.
+  private static <T> void replace(List<T> list, int from, int to, List<T> items) {
+    final int common = Math.min(to - from, items.size());
+    for (int i = 0; i < common; ++i) {
+      list.set(from + i, items.get(i));
+    }
+    if (items.size() > common) {
+      list.addAll(from + common, items.subList(common, items.size()));
+    } else if (from + common < to) {
+      // Even an empty range moves the tail of an ArrayList when cleared
+      list.subList(from + common, to).clear();
+    }
+  }
+
+  private int firstSpanEndingAtOrAfter(int offset) {
+    int lo = 0;
+    int hi = this.spans.size();
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (this.endOf(mid) < offset) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private int firstSpanStartingAfter(int offset) {
+    int lo = 0;
+    int hi = this.spans.size();
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (this.startOf(mid) <= offset) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  // The text of the buffer, with a gap where the last edit was. An edit moves
+  // the characters between it and the gap, and fills the gap.
+  private static class GapBuffer implements CharSequence {
+    private char[] chars;
+    private int gapStart;
+    private int gapEnd;
+
+    GapBuffer(String text) {
+      this.chars = new char[Math.max(16, text.length() * 2)];
+      text.getChars(0, text.length(), this.chars, 0);
+      this.gapStart = text.length();
+      this.gapEnd = this.chars.length;
+    }
+
+    void replace(int offset, int removedLength, String insertedText) {
+      this.moveGap(offset);
+      this.gapEnd += removedLength;
+      if (insertedText.length() > this.gapEnd - this.gapStart) {
+        this.grow(insertedText.length());
+      }
+      insertedText.getChars(0, insertedText.length(), this.chars, this.gapStart);
+      this.gapStart += insertedText.length();
+    }
+
+    private void moveGap(int offset) {
+      if (offset < this.gapStart) {
+        final int count = this.gapStart - offset;
+        System.arraycopy(this.chars, offset, this.chars, this.gapEnd - count, count);
+        this.gapStart -= count;
+        this.gapEnd -= count;
+      } else if (offset > this.gapStart) {
+        final int count = offset - this.gapStart;
+        System.arraycopy(this.chars, this.gapEnd, this.chars, this.gapStart, count);
+        this.gapStart += count;
+        this.gapEnd += count;
+      }
+    }
+
+    // Make room for at least `needed` characters in the gap
+    private void grow(int needed) {
+      final int tail = this.chars.length - this.gapEnd;
+      final char[] chars = new char[(this.length() + needed) * 2];
+      System.arraycopy(this.chars, 0, chars, 0, this.gapStart);
+      System.arraycopy(this.chars, this.gapEnd, chars, chars.length - tail, tail);
+      this.chars = chars;
+      this.gapEnd = chars.length - tail;
+    }
+
+    @Override
+    public int length() {
+      return this.chars.length - (this.gapEnd - this.gapStart);
+    }
+
+    @Override
+    public char charAt(int index) {
+      return this.chars[index < this.gapStart ? index : index + this.gapEnd - this.gapStart];
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+      final int gap = this.gapEnd - this.gapStart;
+      if (end <= this.gapStart) {
+        return new String(this.chars, start, end - start);
+      }
+      if (start >= this.gapStart) {
+        return new String(this.chars, start + gap, end - start);
+      }
+      return new StringBuilder(end - start)
+          .append(this.chars, start, this.gapStart - start)
+          .append(this.chars, this.gapEnd, end - this.gapStart)
+          .toString();
+    }
+
+    @Override
+    public String toString() {
+      return this.subSequence(0, this.length());
+    }
+  }
+
+  private static class Span {
+    int startOffset;
+    int endOffset;
+
+    Span(int startOffset, int endOffset) {
+      this.startOffset = startOffset;
+      this.endOffset = endOffset;
+    }
+
+    void shift(int delta) {
+      this.startOffset += delta;
+      this.endOffset += delta;
+    }
+  }
+}
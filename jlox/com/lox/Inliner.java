@@ -0,0 +1,74 @@
+package com.lox;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.lox.ast.Expr;
+import com.lox.ast.Stmt;
+import com.lox.ast.Token;
+import com.lox.ast.TokenType;
+import com.lox.ast.Stmt.FuncStmt;
+
+// Decides which functions can be inlined at their call sites: the ones whose
+// body is a single `return <expr>;` where <expr> makes no call and assigns
+// nothing. Such a function can't recurse and can't observe its own frame, so
+// evaluating <expr> with the parameters bound to the arguments is the same as
+// calling it.
+//
+// Call sites are profiled by the interpreter (see Expr.Call), and only the ones
+// that keep calling the same function are inlined.
+public class Inliner {
+  // Number of calls to the same function before a call site is inlined
+  public static final int THRESHOLD = 16;
+
+  private Inliner() {
+  }
+
+  public static boolean isInlinable(FuncStmt func) {
+    Boolean res = func.isInlinable;
+    if (res == null) {
+      res = Inliner.analyze(func);
+      func.isInlinable = res;
+    }
+    return res;
+  }
+
+  // Index of the parameter named `name`, or -1
+  public static int paramIndex(FuncStmt func, String name) {
+    for (int i = 0; i < func.params.size(); ++i) {
+      if (func.params.get(i).lexeme.equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean analyze(FuncStmt func) {
+    if (func.body.stmts.size() != 1 || !(func.body.stmts.get(0) instanceof Stmt.ReturnStmt ret)) {
+      return false;
+    }
+    // A call would raise an error for duplicate parameters
+    final Set<String> params = new HashSet<>();
+    for (Token param : func.params) {
+      if (!params.add(param.lexeme)) {
+        return false;
+      }
+    }
+    return Inliner.isInlinableExpr(ret.expr);
+  }
+
+  private static boolean isInlinableExpr(Expr expr) {
+    return switch (expr) {
+      case Expr.Literal l -> true;
+      case Expr.Variable v -> true;
+      case Expr.This t -> true;
+      case Expr.Grouping g -> Inliner.isInlinableExpr(g.inner);
+      case Expr.Unary u -> Inliner.isInlinableExpr(u.inner);
+      case Expr.Binary b -> b.op.type != TokenType.EQUAL && Inliner.isInlinableExpr(b.left)
+          && Inliner.isInlinableExpr(b.right);
+      case Expr.VarCompare v -> Inliner.isInlinableExpr(v.right);
+      case Expr.Get g -> Inliner.isInlinableExpr(g.object);
+      default -> false;
+    };
+  }
+}
@@ -1,5 +1,7 @@
 package com.lox;
 
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -7,6 +9,7 @@ import java.util.Map;
 
 import com.lox.ast.Expr;
 import com.lox.ast.Stmt;
+import com.lox.ast.Token;
 import com.lox.ast.TokenType;
 import com.lox.ast.Expr.Variable;
 import com.lox.ast.Stmt.FuncStmt;
@@ -18,8 +21,215 @@ import com.lox.object.LoxNumber;
 import com.lox.object.LoxObject;
 import com.lox.object.LoxString;
 import com.lox.utils.Pair;
+import com.sun.management.HotSpotDiagnosticMXBean;
 
 public class Interpreter {
+  // What a Lox call takes on the Java stack at most, and what is kept for the
+  // frames below the first call (the event loop, the executor, ...)
+  private static final long CALL_STACK_SIZE = 6 * 1024;
+  private static final long RESERVED_STACK_SIZE = 128 * 1024;
+  // Stack size of the threads that don't ask for one, which is also the most
+  // a virtual thread gets: the -Xss option of the JVM, 1 MiB by default
+  public static final long THREAD_STACK_SIZE = Interpreter.defaultStackSize();
+  // Call depth that such a stack holds. Interpreters running on such threads
+  // (executor runs, tasks, generators, parallel callbacks) are capped at it,
+  // so that deep recursion fails with a clean error rather than a
+  // StackOverflowError. Start the JVM with a larger -Xss to raise it.
+  public static final int THREAD_MAX_CALL_DEPTH = Interpreter.maxCallDepth(THREAD_STACK_SIZE);
+
+  // The interpreter running Lox code on this thread, if any
+  private static final ThreadLocal<Interpreter> current = new ThreadLocal<>();
+
+  public interface Body {
+    LoxObject run() throws InterpreterException;
+  }
+
+  // Number of user function calls in progress
+  private int callDepth = 0;
+  private final int maxCallDepth;
+  // Whether a call overflowed the Java stack
+  private boolean hasOverflowed = false;
+  private final FramePool frames = new FramePool();
+  private final List<Safepoint> safepoints = new ArrayList<>();
+  private ExecutionBudget budget = null;
+  private TaskGroup group = null;
+  // Polls between two safepoints, and polls left before the next one
+  private int interval = Integer.MAX_VALUE;
+  private int countdown = Integer.MAX_VALUE;
+
+  public Interpreter() {
+    this(Integer.MAX_VALUE);
+  }
+
+  // Deep recursion is limited by both `maxCallDepth` and the stack size of the
+  // running thread, whichever is hit first
+  public Interpreter(int maxCallDepth) {
+    this.maxCallDepth = maxCallDepth;
+  }
+
+  // An interpreter for a thread that the running one starts, e.g. that of a
+  // task, which is part of the same run: it has the same call depth (within
+  // what the stack of a thread holds), and shares the budget, task group and
+  // safepoints of the interpreter of the running thread, if any
+  public static Interpreter fork() {
+    return Interpreter.fork(Interpreter.current.get());
+  }
+
+  // Same, for a child of `parent`, which may be null. `parent` isn't changed,
+  // so several threads may fork it at once.
+  public static Interpreter fork(Interpreter parent) {
+    if (parent == null) {
+      return new Interpreter(THREAD_MAX_CALL_DEPTH);
+    }
+    final Interpreter child = new Interpreter(Math.min(parent.maxCallDepth, THREAD_MAX_CALL_DEPTH));
+    child.budget = parent.budget;
+    child.group = parent.group;
+    child.safepoints.addAll(parent.safepoints);
+    child.rearm();
+    return child;
+  }
+
+  // The interpreter running Lox code on this thread, or null
+  public static Interpreter current() {
+    return Interpreter.current.get();
+  }
+
+  // Call depth that a stack of `stackSize` bytes holds
+  public static int maxCallDepth(long stackSize) {
+    return (int) Math.min(Math.max((stackSize - RESERVED_STACK_SIZE) / CALL_STACK_SIZE, 1), Integer.MAX_VALUE);
+  }
+
+  private static long defaultStackSize() {
+    try {
+      final HotSpotDiagnosticMXBean vm = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+      // In KiB, and 0 for the default of the platform
+      final long size = Long.parseLong(vm.getVMOption("ThreadStackSize").getValue()) * 1024;
+      if (size > 0) {
+        return size;
+      }
+    } catch (RuntimeException e) {
+      // Not a HotSpot JVM
+    }
+    return 1024 * 1024;
+  }
+
+  // Run `body` with this as the interpreter of the running thread, which is in
+  // the task group of this interpreter meanwhile, if it has one
+  public LoxObject run(Body body) throws InterpreterException {
+    final Interpreter outer = Interpreter.current.get();
+    final boolean entered = this.group != null && this.group.enter();
+    Interpreter.current.set(this);
+    try {
+      return body.run();
+    } finally {
+      Interpreter.current.set(outer);
+      if (entered) {
+        this.group.leave();
+      }
+    }
+  }
+
+  // Drop what this interpreter still refers to of its last run, before it
+  // idles in a pool (see LoxExecutor)
+  public void clearFrames() {
+    this.frames.clear();
+  }
+
+  // A StackOverflowError can strike in the middle of any bookkeeping (the call
+  // depth, the frame pool, ...), so an interpreter that overflowed must not be
+  // reused
+  public boolean hasOverflowed() {
+    return this.hasOverflowed;
+  }
+
+  public void addSafepoint(Safepoint safepoint) {
+    this.safepoints.add(safepoint);
+    this.rearm();
+  }
+
+  public void removeSafepoint(Safepoint safepoint) {
+    this.safepoints.remove(safepoint);
+    this.rearm();
+  }
+
+  // The first safepoint of class `kind`, or null
+  <T extends Safepoint> T safepoint(Class<T> kind) {
+    for (Safepoint safepoint : this.safepoints) {
+      if (kind.isInstance(safepoint)) {
+        return kind.cast(safepoint);
+      }
+    }
+    return null;
+  }
+
+  // Limit the next runs to `budget`, or lift the limits with null
+  public void setBudget(ExecutionBudget budget) {
+    if (this.budget != null) {
+      this.removeSafepoint(this.budget);
+    }
+    this.budget = budget;
+    if (budget != null) {
+      budget.start();
+      this.addSafepoint(budget);
+    }
+  }
+
+  // Run the next runs in `group`, or in none with null
+  public void setGroup(TaskGroup group) {
+    if (this.group != null) {
+      this.removeSafepoint(this.group);
+    }
+    this.group = group;
+    if (group != null) {
+      this.addSafepoint(group);
+    }
+  }
+
+  // Nanoseconds left before the time limit of the budget, or Long.MAX_VALUE
+  // if there is none
+  long timeLeft() {
+    return this.budget != null ? this.budget.timeLeft() : Long.MAX_VALUE;
+  }
+
+  void checkTime() throws InterpreterException {
+    if (this.budget != null) {
+      this.budget.checkTime();
+    }
+  }
+
+  private void rearm() {
+    int interval = Integer.MAX_VALUE;
+    for (Safepoint safepoint : this.safepoints) {
+      interval = Math.min(interval, safepoint.interval());
+    }
+    this.interval = interval;
+    this.countdown = interval;
+  }
+
+  private void poll() throws InterpreterException {
+    if (--this.countdown <= 0) {
+      this.reachSafepoints();
+    }
+  }
+
+  private void reachSafepoints() throws InterpreterException {
+    final int polls = this.interval - this.countdown;
+    try {
+      for (Safepoint safepoint : this.safepoints) {
+        safepoint.reached(polls);
+      }
+    } finally {
+      this.rearm();
+    }
+  }
+
+  // Charge an allocation to the budget, if any
+  private void allocate() throws InterpreterException {
+    if (this.budget != null) {
+      this.budget.allocate();
+    }
+  }
+
   public void evaluate(List<Stmt> stmts) throws InterpreterException {
     Environment env = Environment.createGlobals();
     for (Stmt stmt : stmts) {
@@ -36,7 +246,7 @@ public class Interpreter {
   public LoxObject evaluateStmt(Stmt stmt, Environment env) throws InterpreterException {
     return switch (stmt) {
       case Stmt.PrintStmt p -> {
-        System.out.println(this.evaluateExpr(p.expr, env).toString());
+        env.output().println(this.evaluateExpr(p.expr, env).toString());
         yield LoxNil.NIL;
       }
       case Stmt.ExprStmt e -> this.evaluateExpr(e.expr, env);
@@ -58,16 +268,25 @@ public class Interpreter {
         while (ValueUtils.isTruthy(this.evaluateExpr(w.cond, env))) {
           final Environment blockEnv = createScopeEnvironment(env, w.body);
           this.evaluateStmt(w.body, blockEnv);
+          this.poll();
         }
         yield LoxNil.NIL;
       }
       case Stmt.ForStmt f -> {
         final Environment initEnv = createScopeEnvironment(env, f.init);
         this.evaluateStmt(f.init, initEnv);
+        if (LoopAnalyzer.isCounted(f)) {
+          final Cell counter = initEnv.cellOf(((Stmt.DeclStmt) f.init).id.lexeme);
+          if (counter.value instanceof LoxNumber start) {
+            this.evaluateCountedLoop(f, counter, start.value, initEnv);
+            yield LoxNil.NIL;
+          }
+        }
         while (ValueUtils.isTruthy(this.evaluateStmt(f.cond, initEnv))) {
           final Environment blockEnv = createScopeEnvironment(initEnv, f.body);
           this.evaluateStmt(f.body, blockEnv);
           this.evaluateExpr(f.post, initEnv);
+          this.poll();
         }
         yield LoxNil.NIL;
       }
@@ -80,16 +299,23 @@ public class Interpreter {
         yield lastValue;
       }
       case Stmt.FuncStmt f -> {
-        env.define(f.name.lexeme, new LoxFunction.LoxUserFunction(f, env));
+        this.allocate();
+        env.define(f.name.lexeme, new LoxFunction.LoxUserFunction(f, env.capture(ClosureAnalyzer.freeVariables(f))));
         yield LoxNil.NIL;
       }
       case Stmt.ReturnStmt r -> {
+        // Calls in tail position don't grow the Java stack, except at the top level
+        // where there is no caller to make them
+        if (r.expr instanceof Expr.Call c && this.callDepth > 0) {
+          throw new NonLocalJump.Return(this.evaluateCall(c, env, true));
+        }
         throw new NonLocalJump.Return(this.evaluateExpr(r.expr, env));
       }
       case Stmt.ClsStmt c -> {
+        this.allocate();
         List<LoxFunction> methods = new ArrayList<>();
         for (FuncStmt func : c.methods) {
-          methods.add(new LoxFunction.LoxUserFunction(func, env));
+          methods.add(new LoxFunction.LoxUserFunction(func, env.capture(ClosureAnalyzer.freeVariables(func))));
         }
         LoxClass cls = null;
         if (c.supercls == null) {
@@ -109,6 +335,36 @@ public class Interpreter {
   }
 
   public LoxObject evaluateExpr(Expr expr, Environment env) throws InterpreterException {
+    try {
+      return this.dispatchExpr(expr, env);
+    } catch (NonLocalJump e) {
+      throw e;
+    } catch (InterpreterException e) {
+      e.locate(Interpreter.tokenOf(expr));
+      throw e;
+    }
+  }
+
+  // The token that locates `expr` in its source, if any
+  private static Token tokenOf(Expr expr) {
+    return switch (expr) {
+      case Expr.Binary b -> b.op;
+      case Expr.Unary u -> u.op;
+      case Expr.Grouping g -> Interpreter.tokenOf(g.inner);
+      case Expr.Variable v -> v.var;
+      case Expr.Literal l -> l.value;
+      case Expr.Call c -> Interpreter.tokenOf(c.callee);
+      case Expr.VarIncrement v -> v.op;
+      case Expr.VarCompare v -> v.op;
+      case Expr.FieldIncrement f -> f.property;
+      case Expr.Get g -> g.property;
+      case Expr.Set s -> s.property;
+      case Expr.SuperGet s -> s.member;
+      default -> null;
+    };
+  }
+
+  private LoxObject dispatchExpr(Expr expr, Environment env) throws InterpreterException {
     return switch (expr) {
       case Expr.Binary b -> this.evaluateBinary(b, env);
       case Expr.Unary u -> this.evaluateUnary(u, env);
@@ -116,21 +372,11 @@ public class Interpreter {
       case Expr.Variable v -> this.evaluateVariable(v, env);
       case Expr.Literal l -> this.evaluateLiteral(l, env);
       case Expr.This t -> env.get(SpecialSymbols.THIS_OBJECT);
-      case Expr.Call c -> {
-        LoxObject callee = this.evaluateExpr(c.callee, env);
-        List<LoxObject> arguments = new ArrayList<>();
-        for (Expr arg : c.params) {
-          arguments.add(this.evaluateExpr(arg, env));
-        }
-        if (callee instanceof LoxFunction) {
-          yield this.evaluateFunctionCall((LoxFunction) callee, arguments, env);
-        } else if (callee instanceof LoxClass) {
-          yield this.evaluateClassConstructor((LoxClass) callee, arguments, env);
-        } else {
-          throw new InterpreterException("Callee is not of Callable type");
-        }
-      }
-      case Expr.Get g -> this.evaluateExpr(g.object, env).get(g.property.lexeme);
+      case Expr.Call c -> this.evaluateCall(c, env, false);
+      case Expr.VarIncrement v -> this.evaluateVarIncrement(v, env);
+      case Expr.VarCompare v -> this.evaluateVarCompare(v, env);
+      case Expr.FieldIncrement f -> this.evaluateFieldIncrement(f, env);
+      case Expr.Get g -> this.evaluateGet(g, env);
       case Expr.Set s -> {
         final LoxObject value = this.evaluateExpr(s.value, env);
         this.evaluateExpr(s.object, env).set(s.property.lexeme, value);
@@ -160,8 +406,159 @@ public class Interpreter {
     };
   }
 
+  // Runs a loop recognized by LoopAnalyzer with a primitive counter. The
+  // counter's cell is only kept up to date if the body reads it.
+  private void evaluateCountedLoop(Stmt.ForStmt loop, Cell counter, double start, Environment initEnv)
+      throws InterpreterException {
+    final Expr.VarCompare cond = (Expr.VarCompare) loop.cond.expr;
+    final Expr.VarIncrement post = (Expr.VarIncrement) loop.post;
+    final double delta = ((LoxNumber) ((Expr.Literal) post.delta).constant).value;
+    final double step = post.op.type == TokenType.PLUS ? delta : -delta;
+
+    double i = start;
+    while (true) {
+      final LoxObject bound = this.evaluateExpr(cond.right, initEnv);
+      if (!(bound instanceof LoxNumber b)) {
+        // Raise the same error as the unspecialized comparison
+        this.evaluateBinaryOp(cond.op, new LoxNumber(i), bound);
+        throw new Error("Unreachable: Comparison of a number with a non-number succeeded");
+      }
+      final boolean isInRange = switch (cond.op.type) {
+        case TokenType.LESS -> i < b.value;
+        case TokenType.LESS_EQUAL -> i <= b.value;
+        case TokenType.GREATER -> i > b.value;
+        case TokenType.GREATER_EQUAL -> i >= b.value;
+        default -> throw new Error(String.format("Unreachable: Unexpected loop comparison '%s'", cond.op.lexeme));
+      };
+      if (!isInRange) {
+        return;
+      }
+      this.evaluateStmt(loop.body, createScopeEnvironment(initEnv, loop.body));
+      i += step;
+      if (loop.readsCounter) {
+        counter.value = new LoxNumber(i);
+      }
+      this.poll();
+    }
+  }
+
+  private LoxObject evaluateCall(Expr.Call call, Environment env, boolean isTailCall) throws InterpreterException {
+    final LoxObject callee = this.evaluateExpr(call.callee, env);
+    final int argCount = call.params.size();
+    // When the arity matches, the arguments are evaluated straight into the callee,
+    // without building an argument list
+    if (!isTailCall && callee instanceof LoxFunction.LoxUserFunction u && u.arity() == argCount) {
+      if (this.shouldInline(call, u)) {
+        return this.evaluateInlinedCall(u, call.params, env);
+      }
+      return this.evaluateUserFunction(u, null, call.params, env);
+    }
+    if (callee instanceof LoxFunction.LoxForeignFunction f && f.arity() == argCount && argCount <= 4) {
+      return this.callForeignFunction(f, call.params, env);
+    }
+    final List<LoxObject> arguments = new ArrayList<>();
+    for (Expr arg : call.params) {
+      arguments.add(this.evaluateExpr(arg, env));
+    }
+    if (isTailCall && callee instanceof LoxFunction.LoxUserFunction u) {
+      throw new NonLocalJump.TailCall(u, arguments);
+    }
+    if (callee instanceof LoxFunction) {
+      return this.evaluateFunctionCall((LoxFunction) callee, arguments, env);
+    } else if (callee instanceof LoxClass) {
+      return this.evaluateClassConstructor((LoxClass) callee, arguments, env);
+    } else {
+      throw new InterpreterException("Callee is not of Callable type");
+    }
+  }
+
+  // Update the profile of `call` and tell whether it should be inlined. The
+  // guard is the identity of the callee's declaration: redefining the function
+  // or calling another method from the same site makes it profile again.
+  private boolean shouldInline(Expr.Call call, LoxFunction.LoxUserFunction callee) {
+    if (call.profiledCallee != callee.node) {
+      call.profiledCallee = callee.node;
+      call.profiledCount = 0;
+    }
+    if (call.profiledCount < Inliner.THRESHOLD) {
+      call.profiledCount += 1;
+      return false;
+    }
+    return Inliner.isInlinable(callee.node);
+  }
+
+  // Evaluate the returned expression of an inlinable function (see Inliner)
+  // without setting up a frame
+  private LoxObject evaluateInlinedCall(LoxFunction.LoxUserFunction callee, List<Expr> argExprs, Environment env)
+      throws InterpreterException {
+    final LoxObject[] args = new LoxObject[argExprs.size()];
+    for (int i = 0; i < args.length; ++i) {
+      args[i] = this.evaluateExpr(argExprs.get(i), env);
+    }
+    final Stmt.ReturnStmt ret = (Stmt.ReturnStmt) callee.node.body.stmts.get(0);
+    return this.evaluateInlined(ret.expr, callee, args);
+  }
+
+  private LoxObject evaluateInlined(Expr expr, LoxFunction.LoxUserFunction callee, LoxObject[] args)
+      throws InterpreterException {
+    return switch (expr) {
+      case Expr.Literal l -> l.constant;
+      case Expr.Variable v -> this.lookupInlined(v.var.lexeme, callee, args);
+      case Expr.This t -> callee.env().get(SpecialSymbols.THIS_OBJECT);
+      case Expr.Grouping g -> this.evaluateInlined(g.inner, callee, args);
+      case Expr.Unary u -> this.evaluateUnaryOp(u.op, this.evaluateInlined(u.inner, callee, args));
+      case Expr.Binary b -> {
+        final LoxObject left = this.evaluateInlined(b.left, callee, args);
+        if (b.op.type == TokenType.OR && ValueUtils.isTruthy(left)
+            || b.op.type == TokenType.AND && ValueUtils.isFalsy(left)) {
+          yield left;
+        }
+        final LoxObject right = this.evaluateInlined(b.right, callee, args);
+        if (b.op.type == TokenType.OR || b.op.type == TokenType.AND) {
+          yield right;
+        }
+        yield this.evaluateBinaryOp(b.op, left, right);
+      }
+      case Expr.VarCompare v -> {
+        final LoxObject left = this.lookupInlined(v.var.var.lexeme, callee, args);
+        yield this.evaluateBinaryOp(v.op, left, this.evaluateInlined(v.right, callee, args));
+      }
+      case Expr.Get g -> this.evaluateInlined(g.object, callee, args).get(g.property.lexeme);
+      default -> throw new Error("Unreachable: Expression is not inlinable");
+    };
+  }
+
+  private LoxObject lookupInlined(String name, LoxFunction.LoxUserFunction callee, LoxObject[] args)
+      throws InterpreterException {
+    final int index = Inliner.paramIndex(callee.node, name);
+    return index >= 0 ? args[index] : callee.env().get(name);
+  }
+
+  private LoxObject evaluateGet(Expr.Get get, Environment env) throws InterpreterException {
+    final LoxObject object = this.evaluateExpr(get.object, env);
+    final String name = get.property.lexeme;
+    final LoxObject field = object.getField(name);
+    if (field != null) {
+      return field;
+    }
+
+    // Methods are resolved once per site. Classes never change, so the method
+    // stays right for receivers of the cached class, and for those of its
+    // subclasses until one of them overrides it.
+    final LoxClass cls = object.cls();
+    final WeakReference<Expr.Get.MethodCache> ref = get.methodCache;
+    final Expr.Get.MethodCache cache = ref != null ? ref.get() : null;
+    if (cache != null && (cls == cache.cls || cache.assumption.isValid() && cls.isSubclass(cache.cls))) {
+      return object.bindMethod(cache.method);
+    }
+    final Expr.Get.MethodCache created = cls.methodCache(name);
+    get.methodCache = new WeakReference<>(created);
+    return object.bindMethod(created.method);
+  }
+
   private LoxObject evaluateClassConstructor(LoxClass kls, List<LoxObject> args, Environment env)
       throws InterpreterException {
+    this.allocate();
     final LoxObject blankObj = new LoxObject() {
       @Override
       public String toString() {
@@ -187,6 +584,17 @@ public class Interpreter {
     return blankObj;
   }
 
+  // Call `callee` from outside of Lox code, e.g. on the thread of a new task
+  public LoxObject call(LoxFunction callee, List<LoxObject> args) throws InterpreterException {
+    final Interpreter outer = Interpreter.current.get();
+    Interpreter.current.set(this);
+    try {
+      return this.evaluateFunctionCall(callee, args, null);
+    } finally {
+      Interpreter.current.set(outer);
+    }
+  }
+
   private LoxObject evaluateFunctionCall(LoxFunction callee, List<LoxObject> args, Environment env)
       throws InterpreterException {
     return switch (callee) {
@@ -201,25 +609,103 @@ public class Interpreter {
     if (func.arity() != args.size()) {
       throw new InterpreterException(String.format("Expected %s argument(s) but got %s", func.arity(), args.size()));
     }
+    return this.evaluateUserFunction(func, args, null, env);
+  }
 
+  // The arguments are given either already evaluated in `args`, or as the
+  // expressions `argExprs`, which are then evaluated in `env` straight into the
+  // callee's frame. Either way, they must match the arity of `func`.
+  //
+  // Tail calls made by `func` are run here in a loop, so that they don't
+  // grow the Java stack
+  private LoxObject evaluateUserFunction(LoxFunction.LoxUserFunction func, List<LoxObject> args, List<Expr> argExprs,
+      Environment env) throws InterpreterException {
     try {
-      final Environment initEnv = new Environment(func.env());
-      for (int i = 0; i < func.node.params.size(); ++i) {
-        initEnv.define(func.node.params.get(i).lexeme, args.get(i));
+      while (true) {
+        try {
+          return this.callUserFunction(func, args, argExprs, env);
+        } catch (NonLocalJump.TailCall t) {
+          func = t.callee;
+          args = t.arguments;
+          argExprs = null;
+          if (func.arity() != args.size()) {
+            throw new InterpreterException(
+                String.format("Expected %s argument(s) but got %s", func.arity(), args.size()));
+          }
+        }
       }
-      final Environment bodyEnv = createScopeEnvironment(initEnv, func.node.body);
-      this.evaluate(func.node.body.stmts, bodyEnv);
-      return LoxNil.NIL;
-    } catch (NonLocalJump.Return r) {
-      return r.value;
+    } catch (StackOverflowError e) {
+      this.hasOverflowed = true;
+      // Only the outermost call reports it, once the stack has been unwound
+      if (this.callDepth > 0) {
+        throw e;
+      }
+      throw new InterpreterException("Stack overflow");
     }
   }
 
+  private LoxObject callUserFunction(LoxFunction.LoxUserFunction func, List<LoxObject> args, List<Expr> argExprs,
+      Environment env) throws InterpreterException {
+    if (this.callDepth >= this.maxCallDepth) {
+      throw new InterpreterException(String.format("Maximum call depth of %s exceeded", this.maxCallDepth));
+    }
+    this.poll();
+
+    // When nothing can outlive the call, its frames are borrowed from the pool
+    final FramePool pool = ClosureAnalyzer.hasPrivateFrames(func.node) ? this.frames : null;
+    final Environment initEnv = pool != null ? pool.acquire(func.env()) : new Environment(func.env());
+    final Environment bodyEnv = pool != null ? pool.acquire(initEnv) : new Environment(initEnv);
+    try {
+      final List<Token> params = func.node.params;
+      for (int i = 0; i < params.size(); ++i) {
+        final LoxObject arg = args != null ? args.get(i) : this.evaluateExpr(argExprs.get(i), env);
+        initEnv.define(params.get(i).lexeme, arg);
+      }
+      this.declareScope(bodyEnv, func.node.body);
+
+      this.callDepth += 1;
+      try {
+        this.evaluate(func.node.body.stmts, bodyEnv);
+        return LoxNil.NIL;
+      } catch (NonLocalJump.Return r) {
+        return r.value;
+      } finally {
+        this.callDepth -= 1;
+      }
+    } finally {
+      if (pool != null) {
+        pool.release(2);
+      }
+    }
+  }
+
+  // Calls a native through its fixed-arity entry point, so that no argument
+  // list is built. `argExprs` must match the arity of `func`.
+  private LoxObject callForeignFunction(LoxFunction.LoxForeignFunction func, List<Expr> argExprs, Environment env)
+      throws InterpreterException {
+    if (func.allocates()) {
+      this.allocate();
+    }
+    return switch (argExprs.size()) {
+      case 0 -> func.call();
+      case 1 -> func.call(this.evaluateExpr(argExprs.get(0), env));
+      case 2 -> func.call(this.evaluateExpr(argExprs.get(0), env), this.evaluateExpr(argExprs.get(1), env));
+      case 3 -> func.call(this.evaluateExpr(argExprs.get(0), env), this.evaluateExpr(argExprs.get(1), env),
+          this.evaluateExpr(argExprs.get(2), env));
+      case 4 -> func.call(this.evaluateExpr(argExprs.get(0), env), this.evaluateExpr(argExprs.get(1), env),
+          this.evaluateExpr(argExprs.get(2), env), this.evaluateExpr(argExprs.get(3), env));
+      default -> throw new Error("Native calls with more than 4 arguments have no fixed-arity entry point");
+    };
+  }
+
   private LoxObject evaluateForeignFunction(LoxFunction.LoxForeignFunction func, List<LoxObject> args, Environment env)
       throws InterpreterException {
     if (func.arity() != args.size()) {
       throw new InterpreterException(String.format("Expected %s argument(s) but got %s", func.arity(), args.size()));
     }
+    if (func.allocates()) {
+      this.allocate();
+    }
 
     return func.call(args);
   }
@@ -227,7 +713,13 @@ public class Interpreter {
   private LoxObject evaluateBinary(Expr.Binary bin, Environment env) throws InterpreterException {
     if (bin.op.type == TokenType.EQUAL) {
       final LoxObject right = this.evaluateExpr(bin.right, env);
-      env.assign(((Variable) bin.left).var.lexeme, right);
+      final Variable var = (Variable) bin.left;
+      final Cell cell = this.globalCellOf(var, env);
+      if (cell != null && cell.get() != null) {
+        cell.assign(right);
+      } else {
+        env.assign(var.var.lexeme, right);
+      }
       return right;
     }
     if (bin.op.type == TokenType.OR) {
@@ -248,7 +740,11 @@ public class Interpreter {
     }
     final LoxObject left = this.evaluateExpr(bin.left, env);
     final LoxObject right = this.evaluateExpr(bin.right, env);
-    return switch (bin.op.type) {
+    return this.evaluateBinaryOp(bin.op, left, right);
+  }
+
+  private LoxObject evaluateBinaryOp(Token op, LoxObject left, LoxObject right) throws InterpreterException {
+    return switch (op.type) {
       case TokenType.PLUS -> {
         if (!TypecheckUtils.isNumber(left) || !TypecheckUtils.isNumber(right)) {
           throw new InterpreterException(String.format("Unsupported operator '+' on %s and %s",
@@ -317,13 +813,16 @@ public class Interpreter {
         }
         yield ValueUtils.getLoxBool(((LoxNumber) left).value >= ((LoxNumber) right).value);
       }
-      default -> throw new Error(String.format("Unreachable: Unexpected binary operator '%s'", bin.op.lexeme));
+      default -> throw new Error(String.format("Unreachable: Unexpected binary operator '%s'", op.lexeme));
     };
   }
 
   private LoxObject evaluateUnary(Expr.Unary un, Environment env) throws InterpreterException {
-    final LoxObject inner = this.evaluateExpr(un.inner, env);
-    return switch (un.op.type) {
+    return this.evaluateUnaryOp(un.op, this.evaluateExpr(un.inner, env));
+  }
+
+  private LoxObject evaluateUnaryOp(Token op, LoxObject inner) throws InterpreterException {
+    return switch (op.type) {
       case TokenType.BANG -> {
         yield ValueUtils.getLoxBool(ValueUtils.isFalsy(inner));
       }
@@ -334,7 +833,7 @@ public class Interpreter {
         }
         yield new LoxNumber(-((LoxNumber) inner).value);
       }
-      default -> throw new Error(String.format("Unreachable: Unexpected unary operator '%s'", un.op.lexeme));
+      default -> throw new Error(String.format("Unreachable: Unexpected unary operator '%s'", op.lexeme));
     };
   }
 
@@ -343,23 +842,118 @@ public class Interpreter {
   }
 
   private LoxObject evaluateLiteral(Expr.Literal lit, Environment env) {
-    if (lit.value.literal == null) {
-      return LoxNil.NIL;
-    }
-    return switch (lit.value.literal) {
-      case Double d -> new LoxNumber(d);
-      case String s -> new LoxString(s);
-      case Boolean b -> ValueUtils.getLoxBool(b);
-      default -> throw new Error(String.format("Unreachable: Unexpected literal type"));
-    };
+    return lit.constant;
+  }
+
+  // Whether a name refers to a local or a global variable only depends on the
+  // site, as all the names of a scope are declared on entry. Once a site is
+  // known to be global, its cell is looked up in the globals of `env` right
+  // away, which works whichever isolate runs it. Returns null for local sites,
+  // and for globals that don't exist (yet), which the slow path reports.
+  private Cell globalCellOf(Expr.Variable var, Environment env) throws InterpreterException {
+    if (var.isLocal) {
+      return null;
+    }
+    if (!var.isGlobal) {
+      if (env.globalCellOf(var.var.lexeme) == null) {
+        var.isLocal = true;
+        return null;
+      }
+      var.isGlobal = true;
+    }
+    return env.globals().globalCell(var.var.lexeme);
   }
 
+  // Global sites also cache the cell, and its value while it is unchanged
   private LoxObject evaluateVariable(Expr.Variable var, Environment env) throws InterpreterException {
+    final WeakReference<Expr.Variable.GlobalCache> ref = var.globalCache;
+    final Expr.Variable.GlobalCache cache = ref != null ? ref.get() : null;
+    if (cache != null && cache.globals == env.globals()) {
+      if (cache.constant.isValid()) {
+        return cache.value;
+      }
+      final LoxObject value = cache.cell.get();
+      if (value != null) {
+        return value;
+      }
+    } else {
+      final Cell cell = this.globalCellOf(var, env);
+      final LoxObject value = cell == null ? null : cell.get();
+      if (value != null) {
+        // Within an isolate, the globals never change, so a site that sees
+        // other globals, or whose globals are gone, is shared by several
+        // isolates and stops caching
+        if (ref == null && !var.isShared) {
+          var.globalCache = new WeakReference<>(cell.cache(env.globals()));
+        } else if (ref != null) {
+          var.globalCache = null;
+          var.isShared = true;
+        }
+        return value;
+      }
+    }
     return env.get(var.var.lexeme);
   }
 
+  private LoxObject evaluateVarIncrement(Expr.VarIncrement inc, Environment env) throws InterpreterException {
+    final String name = inc.var.var.lexeme;
+    final Cell global = this.globalCellOf(inc.var, env);
+    final Cell cell = global != null ? global : env.cellOf(name);
+    final LoxObject value = cell.get();
+    if (value == null) {
+      throw new InterpreterException("Variable '" + name + "' used before defined");
+    }
+    final LoxObject delta = this.evaluateExpr(inc.delta, env);
+    final LoxObject res = this.evaluateIncrement(inc.op, value, delta);
+    cell.assign(res);
+    return res;
+  }
+
+  private LoxObject evaluateVarCompare(Expr.VarCompare cmp, Environment env) throws InterpreterException {
+    final LoxObject left = this.evaluateVariable(cmp.var, env);
+    final LoxObject right = this.evaluateExpr(cmp.right, env);
+    if (left instanceof LoxNumber l && right instanceof LoxNumber r) {
+      return switch (cmp.op.type) {
+        case TokenType.LESS -> ValueUtils.getLoxBool(l.value < r.value);
+        case TokenType.LESS_EQUAL -> ValueUtils.getLoxBool(l.value <= r.value);
+        case TokenType.GREATER -> ValueUtils.getLoxBool(l.value > r.value);
+        case TokenType.GREATER_EQUAL -> ValueUtils.getLoxBool(l.value >= r.value);
+        case TokenType.EQUAL_EQUAL -> ValueUtils.getLoxBool(l.value == r.value);
+        case TokenType.BANG_EQUAL -> ValueUtils.getLoxBool(l.value != r.value);
+        default -> throw new Error(String.format("Unreachable: Unexpected comparison operator '%s'", cmp.op.lexeme));
+      };
+    }
+    return this.evaluateBinaryOp(cmp.op, left, right);
+  }
+
+  private LoxObject evaluateFieldIncrement(Expr.FieldIncrement inc, Environment env) throws InterpreterException {
+    final LoxObject object = this.evaluateExpr(inc.object, env);
+    final LoxObject value = object.get(inc.property.lexeme);
+    final LoxObject delta = this.evaluateExpr(inc.delta, env);
+    final LoxObject res = this.evaluateIncrement(inc.op, value, delta);
+    object.set(inc.property.lexeme, res);
+    return res;
+  }
+
+  private LoxObject evaluateIncrement(Token op, LoxObject value, LoxObject delta) throws InterpreterException {
+    if (value instanceof LoxNumber v && delta instanceof LoxNumber d) {
+      return new LoxNumber(op.type == TokenType.PLUS ? v.value + d.value : v.value - d.value);
+    }
+    return this.evaluateBinaryOp(op, value, delta);
+  }
+
   private Environment createScopeEnvironment(Environment parent, Stmt stmt) throws InterpreterException {
+    // Only declarations need a scope of their own
+    if (!(stmt instanceof Stmt.DeclStmt || stmt instanceof Stmt.FuncStmt || stmt instanceof Stmt.ClsStmt
+        || stmt instanceof Stmt.BlockStmt b && b.hasDeclarations)) {
+      return parent;
+    }
     final Environment env = new Environment(parent);
+    this.declareScope(env, stmt);
+    return env;
+  }
+
+  private void declareScope(Environment env, Stmt stmt) throws InterpreterException {
     if (stmt instanceof Stmt.BlockStmt) {
       final Stmt.BlockStmt block = (Stmt.BlockStmt) stmt;
       for (Stmt bstmt : block.stmts) {
@@ -384,7 +978,6 @@ public class Interpreter {
     } else if (stmt instanceof Stmt.ClsStmt) {
       env.declare(((Stmt.FuncStmt) stmt).name.lexeme);
     }
-    return env;
   }
 }
 
@@ -447,9 +1040,7 @@ class ValueUtils {
     if (TypecheckUtils.isBoolean(o1)) {
       return ((LoxBoolean) o1).value == ((LoxBoolean) o2).value;
     }
-    if (TypecheckUtils.isString(o1)) {
-      return ((LoxString) o1).value == ((LoxString) o2).value;
-    }
+    // Strings are interned, so equal strings are the same object
     return o1 == o2;
   }
 }
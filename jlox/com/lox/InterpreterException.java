@@ -1,9 +1,38 @@
 package com.lox;
 
+import com.lox.ast.Token;
+
 public class InterpreterException extends Exception {
   public final String message;
+  // Offsets of the innermost expression that was being evaluated when this
+  // was raised, in the source of its program, or -1 if unknown
+  private int startOffset = -1;
+  private int endOffset = -1;
 
   public InterpreterException(String message) {
     this.message = message;
   }
+
+  // For exceptions that are only used for control flow and never need a stack trace
+  protected InterpreterException(String message, boolean writableStackTrace) {
+    super(null, null, false, writableStackTrace);
+    this.message = message;
+  }
+
+  public int startOffset() {
+    return this.startOffset;
+  }
+
+  public int endOffset() {
+    return this.endOffset;
+  }
+
+  // Called as the exception leaves each expression, so only the innermost one
+  // with a position counts
+  void locate(Token token) {
+    if (this.startOffset < 0 && token != null && token.startOffset >= 0) {
+      this.startOffset = token.startOffset;
+      this.endOffset = token.endOffset;
+    }
+  }
 }
@@ -0,0 +1,90 @@
+package com.lox;
+
+import com.lox.ast.Stmt;
+import com.lox.object.LoxNil;
+import com.lox.object.LoxObject;
+
+// An independent Lox runtime: its own globals, interpreter and heap (every
+// object created by the programs it runs).
+//
+// Thread-safety contract:
+// - A Program is immutable once compiled and can be shared by any number of
+//   isolates on any number of threads.
+// - An isolate is confined: it must be used by one thread at a time. Isolates
+//   never share mutable objects, so different isolates run in parallel
+//   without locking. The tasks a script spawns (see LoxTask) run in its
+//   isolate on other threads, under the data race rules of the README.
+// - The builtin classes (Object, Number, ...) and the literals of a program
+//   are shared by all isolates, and they are immutable.
+// - The caches of the syntax tree (call profiles, method and global caches)
+//   are written racily by the isolates running the same program. They only
+//   hold immutable records that are checked before use, so a race can only
+//   cost a cache miss.
+public class Isolate {
+  private final Interpreter interpreter;
+  private final Environment globals;
+
+  public Isolate() throws InterpreterException {
+    this(Integer.MAX_VALUE);
+  }
+
+  public Isolate(int maxCallDepth) throws InterpreterException {
+    this.interpreter = new Interpreter(maxCallDepth);
+    this.globals = Environment.createGlobals();
+  }
+
+  Isolate(Interpreter interpreter, Environment globals) {
+    this.interpreter = interpreter;
+    this.globals = globals;
+  }
+
+  public Environment globals() {
+    return this.globals;
+  }
+
+  // Run `program` in the globals of this isolate, then its event loop until no
+  // callback is left (see EventLoop), and return the value of its last
+  // statement
+  public LoxObject run(Program program) throws InterpreterException {
+    if (program.hasErrors()) {
+      throw new Error("Can't run a program that failed to compile");
+    }
+    return this.interpreter.run(() -> EventLoop.run(this.interpreter, () -> {
+      LoxObject res = LoxNil.NIL;
+      for (Stmt stmt : program.stmts) {
+        res = this.interpreter.evaluateStmt(stmt, this.globals);
+      }
+      return res;
+    }));
+  }
+
+  // Same, as a confined run within the limits of `budget` if not null, which
+  // must not be used by another run. The tasks, generators and parallel
+  // callbacks of a confined run are in its task group: they are charged to its
+  // budget, stopped at its time limit even if they are blocked, and stopped
+  // when it ends. Those of a run that isn't confined may outlive it, e.g. to
+  // be joined by the next line of a REPL.
+  public LoxObject run(Program program, ExecutionBudget budget) throws InterpreterException {
+    return this.run(program, budget, new TaskGroup());
+  }
+
+  // Same, in `group`, which must be new. Cancelling it stops the run.
+  LoxObject run(Program program, ExecutionBudget budget, TaskGroup group) throws InterpreterException {
+    this.interpreter.setBudget(budget);
+    this.interpreter.setGroup(group);
+    if (budget != null) {
+      budget.watch(group);
+    }
+    try {
+      return this.run(program);
+    } catch (InterpreterException e) {
+      // The threads that the group stopped fail with errors of their own
+      final String reason = group.reason();
+      throw reason != null ? new InterpreterException(reason) : e;
+    } finally {
+      this.interpreter.setGroup(null);
+      this.interpreter.setBudget(null);
+      group.end();
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package com.lox;
+
+import com.lox.ast.Expr;
+import com.lox.ast.Stmt;
+import com.lox.ast.TokenType;
+import com.lox.object.LoxNumber;
+
+// Recognizes counted loops on the optimized tree:
+//   for (var i = <start>; i < <bound>; i = i + <step>) <body>
+// where the comparison is one of < <= > >=, <bound> is a literal or another
+// variable, <step> is a number literal and <body> neither assigns `i` nor
+// declares a function or class that could capture it. The interpreter runs
+// such loops with a primitive counter.
+public class LoopAnalyzer {
+  private final String counter;
+  private boolean assignsCounter = false;
+  private boolean readsCounter = false;
+  private boolean hasClosures = false;
+
+  private LoopAnalyzer(String counter) {
+    this.counter = counter;
+  }
+
+  public static boolean isCounted(Stmt.ForStmt loop) {
+    Boolean res = loop.isCounted;
+    if (res == null) {
+      res = LoopAnalyzer.analyze(loop);
+      loop.isCounted = res;
+    }
+    return res;
+  }
+
+  private static boolean analyze(Stmt.ForStmt loop) {
+    if (!(loop.init instanceof Stmt.DeclStmt init) || init.expr == null) {
+      return false;
+    }
+    final String counter = init.id.lexeme;
+    if (!(loop.cond.expr instanceof Expr.VarCompare cond) || !cond.var.var.lexeme.equals(counter)) {
+      return false;
+    }
+    if (cond.op.type == TokenType.EQUAL_EQUAL || cond.op.type == TokenType.BANG_EQUAL) {
+      return false;
+    }
+    if (cond.right instanceof Expr.Variable v && v.var.lexeme.equals(counter)) {
+      return false;
+    }
+    if (!(loop.post instanceof Expr.VarIncrement post) || !post.var.var.lexeme.equals(counter)
+        || !(post.delta instanceof Expr.Literal step) || !(step.constant instanceof LoxNumber)) {
+      return false;
+    }
+
+    final LoopAnalyzer analyzer = new LoopAnalyzer(counter);
+    analyzer.analyzeStmt(loop.body);
+    if (analyzer.assignsCounter || analyzer.hasClosures) {
+      return false;
+    }
+    loop.readsCounter = analyzer.readsCounter;
+    return true;
+  }
+
+  private void analyzeStmt(Stmt stmt) {
+    switch (stmt) {
+      case Stmt.ExprStmt e -> this.analyzeExpr(e.expr);
+      case Stmt.PrintStmt p -> this.analyzeExpr(p.expr);
+      case Stmt.ReturnStmt r -> this.analyzeExpr(r.expr);
+      case Stmt.DeclStmt d -> {
+        if (d.expr != null) {
+          this.analyzeExpr(d.expr);
+        }
+      }
+      case Stmt.IfStmt i -> {
+        this.analyzeExpr(i.cond);
+        this.analyzeStmt(i.thenBranch);
+        if (i.elseBranch != null) {
+          this.analyzeStmt(i.elseBranch);
+        }
+      }
+      case Stmt.WhileStmt w -> {
+        this.analyzeExpr(w.cond);
+        this.analyzeStmt(w.body);
+      }
+      case Stmt.ForStmt f -> {
+        this.analyzeStmt(f.init);
+        this.analyzeStmt(f.cond);
+        this.analyzeExpr(f.post);
+        this.analyzeStmt(f.body);
+      }
+      case Stmt.BlockStmt b -> {
+        for (Stmt s : b.stmts) {
+          this.analyzeStmt(s);
+        }
+      }
+      case Stmt.FuncStmt f -> this.hasClosures = true;
+      case Stmt.ClsStmt c -> this.hasClosures = true;
+      default -> throw new Error("Non-exhaustive check");
+    }
+  }
+
+  // Shadowing declarations of the counter inside the body are treated like the
+  // counter itself, which is only more conservative
+  private void analyzeExpr(Expr expr) {
+    switch (expr) {
+      case Expr.Binary b -> {
+        if (b.op.type == TokenType.EQUAL) {
+          this.assign(((Expr.Variable) b.left).var.lexeme);
+        } else {
+          this.analyzeExpr(b.left);
+        }
+        this.analyzeExpr(b.right);
+      }
+      case Expr.Unary u -> this.analyzeExpr(u.inner);
+      case Expr.Grouping g -> this.analyzeExpr(g.inner);
+      case Expr.Literal l -> {
+      }
+      case Expr.Variable v -> this.read(v.var.lexeme);
+      case Expr.This t -> {
+      }
+      case Expr.Call c -> {
+        this.analyzeExpr(c.callee);
+        for (Expr param : c.params) {
+          this.analyzeExpr(param);
+        }
+      }
+      case Expr.Get g -> this.analyzeExpr(g.object);
+      case Expr.Set s -> {
+        this.analyzeExpr(s.value);
+        this.analyzeExpr(s.object);
+      }
+      case Expr.SuperGet s -> {
+      }
+      case Expr.SuperCall s -> {
+        for (Expr param : s.params) {
+          this.analyzeExpr(param);
+        }
+      }
+      case Expr.VarIncrement v -> {
+        this.assign(v.var.var.lexeme);
+        this.analyzeExpr(v.delta);
+      }
+      case Expr.VarCompare v -> {
+        this.read(v.var.var.lexeme);
+        this.analyzeExpr(v.right);
+      }
+      case Expr.FieldIncrement f -> {
+        this.analyzeExpr(f.object);
+        this.analyzeExpr(f.delta);
+      }
+      default -> throw new Error("Non-exhaustive check");
+    }
+  }
+
+  private void read(String name) {
+    if (name.equals(this.counter)) {
+      this.readsCounter = true;
+    }
+  }
+
+  private void assign(String name) {
+    if (name.equals(this.counter)) {
+      this.assignsCounter = true;
+    }
+  }
+}
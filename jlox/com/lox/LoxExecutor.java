@@ -0,0 +1,173 @@
+package com.lox;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.lox.object.LoxObject;
+
+// Runs scripts concurrently, each run in its own isolate on its own virtual
+// thread, so that a run blocked in a native only parks its virtual thread.
+//
+// Every run starts from a copy of prewarmed globals: the builtins, and
+// whatever the prelude given at construction defines (see
+// Environment.copyGlobals for what a prelude may define). Interpreters are
+// pooled between runs, and so are the frames they allocate. Compiled programs
+// are cached by source text, the least recently used going first once the
+// cache is full.
+//
+// Runs get the stack size of virtual threads, which is that of the -Xss
+// option of the JVM, so a call depth larger than what it holds
+// (Interpreter.THREAD_MAX_CALL_DEPTH) is lowered to it.
+//
+// Given a scheduler, runs are time-sliced over its carriers (see Scheduler)
+// instead of all interpreting at once.
+public class LoxExecutor implements AutoCloseable {
+  private static final int MAX_IDLE_INTERPRETERS = 256;
+  static final int MAX_CACHED_PROGRAMS = 1024;
+
+  private final int maxCallDepth;
+  private final Scheduler scheduler;
+  private final Environment prewarmed;
+  private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+  private final BlockingQueue<Interpreter> idleInterpreters = new ArrayBlockingQueue<>(MAX_IDLE_INTERPRETERS);
+  // Not a monitor: a virtual thread blocked in one can't leave its carrier
+  private final ReentrantLock programsLock = new ReentrantLock();
+  // In access order, so that the eldest entry is the least recently used
+  private final Map<String, Program> programs = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+      return this.size() > MAX_CACHED_PROGRAMS;
+    }
+  };
+
+  public LoxExecutor() throws InterpreterException {
+    this(null, Interpreter.THREAD_MAX_CALL_DEPTH);
+  }
+
+  public LoxExecutor(Program prelude, int maxCallDepth) throws InterpreterException {
+    this(prelude, maxCallDepth, null);
+  }
+
+  public LoxExecutor(Program prelude, int maxCallDepth, Scheduler scheduler) throws InterpreterException {
+    this.maxCallDepth = Math.min(maxCallDepth, Interpreter.THREAD_MAX_CALL_DEPTH);
+    this.scheduler = scheduler;
+    final Isolate isolate = new Isolate(maxCallDepth);
+    if (prelude != null) {
+      isolate.run(prelude);
+    }
+    this.prewarmed = isolate.globals();
+    // Fail now rather than on every run if the prelude can't be copied
+    this.prewarmed.copyGlobals();
+  }
+
+  public Program compile(SourceFile source) {
+    this.programsLock.lock();
+    try {
+      final Program program = this.programs.get(source.text);
+      if (program != null) {
+        return program;
+      }
+    } finally {
+      this.programsLock.unlock();
+    }
+    // Outside of the lock, so that runs don't wait for each other's compile
+    final Program program = Program.compile(source);
+    this.programsLock.lock();
+    try {
+      final Program cached = this.programs.putIfAbsent(source.text, program);
+      return cached != null ? cached : program;
+    } finally {
+      this.programsLock.unlock();
+    }
+  }
+
+  public CompletableFuture<LoxObject> submit(SourceFile source, Map<String, LoxObject> bindings) {
+    return this.submit(source, bindings, null);
+  }
+
+  // Completes with the first compile error if `source` doesn't compile (all of
+  // them are available through `compile`)
+  public CompletableFuture<LoxObject> submit(SourceFile source, Map<String, LoxObject> bindings,
+      ExecutionBudget budget) {
+    final Program program = this.compile(source);
+    if (program.hasErrors()) {
+      return CompletableFuture.failedFuture(
+          program.scannerErrors.size() > 0 ? program.scannerErrors.get(0) : program.parserErrors.get(0));
+    }
+    return this.submit(program, bindings, budget);
+  }
+
+  public CompletableFuture<LoxObject> submit(Program program, Map<String, LoxObject> bindings) {
+    return this.submit(program, bindings, null);
+  }
+
+  public CompletableFuture<LoxObject> submit(Program program, Map<String, LoxObject> bindings,
+      ExecutionBudget budget) {
+    return this.submit(program, bindings, budget, null);
+  }
+
+  // Run `program` with `bindings` defined as globals, within `budget` if not
+  // null, printing to `output` if not null instead of System.out, and complete
+  // with the value of its last statement. Cancelling the result stops the run
+  // and the tasks it spawned.
+  public CompletableFuture<LoxObject> submit(Program program, Map<String, LoxObject> bindings,
+      ExecutionBudget budget, PrintStream output) {
+    if (program.hasErrors()) {
+      throw new Error("Can't run a program that failed to compile");
+    }
+    final CompletableFuture<LoxObject> res = new CompletableFuture<>();
+    final TaskGroup group = new TaskGroup();
+    res.whenComplete((value, error) -> {
+      if (res.isCancelled()) {
+        group.cancel("The run was cancelled");
+      }
+    });
+    this.threads.execute(() -> {
+      try {
+        res.complete(this.run(program, bindings, budget, output, group));
+      } catch (Throwable e) {
+        res.completeExceptionally(e);
+      }
+    });
+    return res;
+  }
+
+  private LoxObject run(Program program, Map<String, LoxObject> bindings, ExecutionBudget budget,
+      PrintStream output, TaskGroup group) throws InterpreterException {
+    final Environment globals = this.prewarmed.copyGlobals();
+    globals.setOutput(output);
+    for (Map.Entry<String, LoxObject> binding : bindings.entrySet()) {
+      globals.define(binding.getKey(), binding.getValue());
+    }
+    Interpreter interpreter = this.idleInterpreters.poll();
+    if (interpreter == null) {
+      interpreter = new Interpreter(this.maxCallDepth);
+    }
+    final Isolate isolate = new Isolate(interpreter, globals);
+    try {
+      if (this.scheduler == null) {
+        return isolate.run(program, budget, group);
+      }
+      return this.scheduler.run(interpreter, () -> isolate.run(program, budget, group));
+    } finally {
+      // Calls unwind completely on Lox errors, so the interpreter is clean,
+      // unless the stack overflowed
+      if (!interpreter.hasOverflowed()) {
+        interpreter.clearFrames();
+        this.idleInterpreters.offer(interpreter);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    this.threads.close();
+  }
+}
@@ -1,10 +1,13 @@
 package com.lox;
 
+import java.util.List;
+
+import com.lox.object.LoxFunction;
 import com.lox.object.LoxObject;
 
 public class NonLocalJump extends InterpreterException {
   NonLocalJump(String message) {
-    super(message);
+    super(message, false);
   }
 
   public static class Return extends NonLocalJump {
@@ -15,4 +18,17 @@ public class NonLocalJump extends InterpreterException {
       this.value = value;
     }
   }
+
+  // `return f(...)`: the call is made by the caller of the returning function,
+  // after the returning function's frame is gone
+  public static class TailCall extends NonLocalJump {
+    final public LoxFunction.LoxUserFunction callee;
+    final public List<LoxObject> arguments;
+
+    public TailCall(LoxFunction.LoxUserFunction callee, List<LoxObject> arguments) {
+      super("Cannot `return` outside a function body");
+      this.callee = callee;
+      this.arguments = arguments;
+    }
+  }
 }
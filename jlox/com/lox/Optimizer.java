@@ -0,0 +1,333 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lox.ast.Expr;
+import com.lox.ast.Stmt;
+import com.lox.ast.Token;
+import com.lox.ast.TokenType;
+import com.lox.ast.Stmt.FuncStmt;
+import com.lox.object.LoxBoolean;
+import com.lox.object.LoxNil;
+import com.lox.object.LoxNumber;
+
+// Rewrites a program into an equivalent but cheaper one:
+// - Folds unary, binary and grouping expressions whose operands are literals.
+// - Prunes `if` and `while` branches whose condition is a literal.
+// - Drops statements that can never be reached (after a `return`) and literal
+//   expression statements whose value is never observed.
+// - Fuses `i = i + k`, `i < n` and `o.f = o.f + k` into single nodes
+//   (Expr.VarIncrement, Expr.VarCompare and Expr.FieldIncrement).
+//
+// Anything that would raise an error at runtime (e.g. `"a" - 1`) is left
+// untouched, so the error is still raised when (and if) it is evaluated.
+// Subtrees that don't change are reused as-is.
+public class Optimizer {
+  public List<Stmt> optimize(List<Stmt> stmts) {
+    return this.optimizeStmts(stmts);
+  }
+
+  public Stmt optimizeStmt(Stmt stmt) {
+    return switch (stmt) {
+      case Stmt.ExprStmt e -> {
+        final Expr expr = this.optimizeExpr(e.expr);
+        yield expr == e.expr ? e : new Stmt.ExprStmt(expr);
+      }
+      case Stmt.PrintStmt p -> {
+        final Expr expr = this.optimizeExpr(p.expr);
+        yield expr == p.expr ? p : new Stmt.PrintStmt(expr);
+      }
+      case Stmt.ReturnStmt r -> {
+        final Expr expr = this.optimizeExpr(r.expr);
+        yield expr == r.expr ? r : new Stmt.ReturnStmt(expr);
+      }
+      case Stmt.DeclStmt d -> {
+        if (d.expr == null) {
+          yield d;
+        }
+        final Expr expr = this.optimizeExpr(d.expr);
+        yield expr == d.expr ? d : new Stmt.DeclStmt(d.id, expr);
+      }
+      case Stmt.IfStmt i -> {
+        final Expr cond = this.optimizeExpr(i.cond);
+        final Stmt thenBranch = this.optimizeStmt(i.thenBranch);
+        final Stmt elseBranch = i.elseBranch == null ? null : this.optimizeStmt(i.elseBranch);
+        if (cond instanceof Expr.Literal l) {
+          if (OptimizerUtils.isTruthy(l)) {
+            yield thenBranch;
+          }
+          yield elseBranch == null ? OptimizerUtils.noop() : elseBranch;
+        }
+        if (cond == i.cond && thenBranch == i.thenBranch && elseBranch == i.elseBranch) {
+          yield i;
+        }
+        yield new Stmt.IfStmt(cond, thenBranch, elseBranch);
+      }
+      case Stmt.WhileStmt w -> {
+        final Expr cond = this.optimizeExpr(w.cond);
+        if (cond instanceof Expr.Literal l && !OptimizerUtils.isTruthy(l)) {
+          yield OptimizerUtils.noop();
+        }
+        final Stmt body = this.optimizeStmt(w.body);
+        yield cond == w.cond && body == w.body ? w : new Stmt.WhileStmt(cond, body);
+      }
+      case Stmt.ForStmt f -> {
+        final Stmt init = this.optimizeStmt(f.init);
+        final Stmt.ExprStmt cond = (Stmt.ExprStmt) this.optimizeStmt(f.cond);
+        if (cond.expr instanceof Expr.Literal l && !OptimizerUtils.isTruthy(l)) {
+          // Only the initializer is ever run
+          final List<Stmt> stmts = new ArrayList<>();
+          stmts.add(init);
+          stmts.add(OptimizerUtils.noop());
+          yield new Stmt.BlockStmt(stmts);
+        }
+        final Expr post = this.optimizeExpr(f.post);
+        final Stmt body = this.optimizeStmt(f.body);
+        if (init == f.init && cond == f.cond && post == f.post && body == f.body) {
+          yield f;
+        }
+        yield new Stmt.ForStmt(init, cond, post, body);
+      }
+      case Stmt.BlockStmt b -> {
+        final List<Stmt> stmts = this.optimizeStmts(b.stmts);
+        yield stmts == b.stmts ? b : new Stmt.BlockStmt(stmts);
+      }
+      case Stmt.FuncStmt f -> this.optimizeFunction(f);
+      case Stmt.ClsStmt c -> {
+        final List<FuncStmt> methods = new ArrayList<>();
+        boolean changed = false;
+        for (FuncStmt method : c.methods) {
+          final FuncStmt newMethod = this.optimizeFunction(method);
+          changed = changed || newMethod != method;
+          methods.add(newMethod);
+        }
+        yield changed ? new Stmt.ClsStmt(c.name, c.supercls, methods) : c;
+      }
+      default -> throw new Error("Non-exhaustive check");
+    };
+  }
+
+  public Expr optimizeExpr(Expr expr) {
+    return switch (expr) {
+      case Expr.Binary b -> this.optimizeBinary(b);
+      case Expr.Unary u -> this.optimizeUnary(u);
+      case Expr.Grouping g -> {
+        final Expr inner = this.optimizeExpr(g.inner);
+        if (inner instanceof Expr.Literal) {
+          yield inner;
+        }
+        yield inner == g.inner ? g : new Expr.Grouping(inner);
+      }
+      case Expr.Call c -> {
+        final Expr callee = this.optimizeExpr(c.callee);
+        final List<Expr> params = this.optimizeExprs(c.params);
+        yield callee == c.callee && params == c.params ? c : new Expr.Call(callee, params);
+      }
+      case Expr.Get g -> {
+        final Expr object = this.optimizeExpr(g.object);
+        yield object == g.object ? g : new Expr.Get(object, g.property);
+      }
+      case Expr.Set s -> {
+        final Expr object = this.optimizeExpr(s.object);
+        final Expr value = this.optimizeExpr(s.value);
+        if (value instanceof Expr.Binary b && OptimizerUtils.isIncrement(b.op) && OptimizerUtils.isSimple(b.right)
+            && b.left instanceof Expr.Get g && g.property.lexeme.equals(s.property.lexeme)
+            && OptimizerUtils.isSameReference(g.object, object)) {
+          yield new Expr.FieldIncrement(object, s.property, b.op, b.right);
+        }
+        yield object == s.object && value == s.value ? s : new Expr.Set(object, s.property, value);
+      }
+      case Expr.SuperCall s -> {
+        final List<Expr> params = this.optimizeExprs(s.params);
+        yield params == s.params ? s : new Expr.SuperCall(params);
+      }
+      case Expr.Literal l -> l;
+      case Expr.Variable v -> v;
+      case Expr.This t -> t;
+      case Expr.SuperGet s -> s;
+      case Expr.VarIncrement v -> v;
+      case Expr.VarCompare v -> v;
+      case Expr.FieldIncrement f -> f;
+      default -> throw new Error("Non-exhaustive check");
+    };
+  }
+
+  private List<Stmt> optimizeStmts(List<Stmt> stmts) {
+    final List<Stmt> res = new ArrayList<>();
+    boolean changed = false;
+    boolean terminated = false;
+    for (int i = 0; i < stmts.size(); ++i) {
+      final Stmt stmt = stmts.get(i);
+      // Declarations are kept even when unreachable: they are hoisted to the
+      // beginning of their scope and can still shadow outer variables
+      if (terminated && !OptimizerUtils.isDeclaration(stmt)) {
+        changed = true;
+        continue;
+      }
+      final Stmt newStmt = this.optimizeStmt(stmt);
+      // The value of a statement is only observed if it is the last one
+      if (i != stmts.size() - 1 && OptimizerUtils.isNoop(newStmt)) {
+        changed = true;
+        continue;
+      }
+      changed = changed || newStmt != stmt;
+      terminated = terminated || OptimizerUtils.alwaysReturns(newStmt);
+      res.add(newStmt);
+    }
+    return changed ? res : stmts;
+  }
+
+  private List<Expr> optimizeExprs(List<Expr> exprs) {
+    final List<Expr> res = new ArrayList<>();
+    boolean changed = false;
+    for (Expr expr : exprs) {
+      final Expr newExpr = this.optimizeExpr(expr);
+      changed = changed || newExpr != expr;
+      res.add(newExpr);
+    }
+    return changed ? res : exprs;
+  }
+
+  private FuncStmt optimizeFunction(FuncStmt f) {
+    final Stmt.BlockStmt body = (Stmt.BlockStmt) this.optimizeStmt(f.body);
+    return body == f.body ? f : new FuncStmt(f.name, f.params, body);
+  }
+
+  private Expr optimizeBinary(Expr.Binary bin) {
+    if (bin.op.type == TokenType.EQUAL) {
+      final Expr right = this.optimizeExpr(bin.right);
+      final Expr.Variable var = (Expr.Variable) bin.left;
+      if (right instanceof Expr.Binary b && OptimizerUtils.isIncrement(b.op) && OptimizerUtils.isSimple(b.right)
+          && OptimizerUtils.isSameReference(b.left, var)) {
+        return new Expr.VarIncrement(var, b.op, b.right);
+      }
+      return right == bin.right ? bin : new Expr.Binary(bin.left, bin.op, right);
+    }
+
+    final Expr left = this.optimizeExpr(bin.left);
+    final Expr right = this.optimizeExpr(bin.right);
+
+    if (left instanceof Expr.Literal l) {
+      if (bin.op.type == TokenType.OR) {
+        return OptimizerUtils.isTruthy(l) ? l : right;
+      }
+      if (bin.op.type == TokenType.AND) {
+        return OptimizerUtils.isTruthy(l) ? right : l;
+      }
+      if (right instanceof Expr.Literal r) {
+        final Expr.Literal folded = this.foldBinary(bin.op, l.value.literal, r.value.literal);
+        if (folded != null) {
+          return folded;
+        }
+      }
+    }
+
+    if (OptimizerUtils.isComparison(bin.op) && left instanceof Expr.Variable v && OptimizerUtils.isSimple(right)) {
+      return new Expr.VarCompare(v, bin.op, right);
+    }
+    return left == bin.left && right == bin.right ? bin : new Expr.Binary(left, bin.op, right);
+  }
+
+  // Return null if the operation can't be folded (it would fail at runtime)
+  private Expr.Literal foldBinary(Token op, Object left, Object right) {
+    if (left instanceof Double l && right instanceof Double r) {
+      return switch (op.type) {
+        case TokenType.PLUS -> OptimizerUtils.number(op, l + r);
+        case TokenType.MINUS -> OptimizerUtils.number(op, l - r);
+        case TokenType.STAR -> OptimizerUtils.number(op, l * r);
+        case TokenType.SLASH -> OptimizerUtils.number(op, l / r);
+        case TokenType.LESS -> OptimizerUtils.bool(op, l < r);
+        case TokenType.LESS_EQUAL -> OptimizerUtils.bool(op, l <= r);
+        case TokenType.GREATER -> OptimizerUtils.bool(op, l > r);
+        case TokenType.GREATER_EQUAL -> OptimizerUtils.bool(op, l >= r);
+        case TokenType.EQUAL_EQUAL -> OptimizerUtils.bool(op, l.doubleValue() == r.doubleValue());
+        case TokenType.BANG_EQUAL -> OptimizerUtils.bool(op, l.doubleValue() != r.doubleValue());
+        default -> null;
+      };
+    }
+    if (op.type != TokenType.EQUAL_EQUAL && op.type != TokenType.BANG_EQUAL) {
+      return null;
+    }
+    // Only nil, booleans, strings and mismatched types are left
+    final boolean equal = left == null ? right == null : left.equals(right);
+    return OptimizerUtils.bool(op, op.type == TokenType.EQUAL_EQUAL ? equal : !equal);
+  }
+
+  private Expr optimizeUnary(Expr.Unary un) {
+    final Expr inner = this.optimizeExpr(un.inner);
+    if (inner instanceof Expr.Literal l) {
+      if (un.op.type == TokenType.BANG) {
+        return OptimizerUtils.bool(un.op, !OptimizerUtils.isTruthy(l));
+      }
+      if (un.op.type == TokenType.MINUS && l.value.literal instanceof Double d) {
+        return OptimizerUtils.number(un.op, -d);
+      }
+    }
+    return inner == un.inner ? un : new Expr.Unary(un.op, inner);
+  }
+}
+
+class OptimizerUtils {
+  static boolean isTruthy(Expr.Literal lit) {
+    return lit.value.literal != null && !Boolean.FALSE.equals(lit.value.literal);
+  }
+
+  static Expr.Literal number(Token origin, double value) {
+    return new Expr.Literal(
+        new Token(TokenType.NUMBER, String.valueOf(value), value, origin.startOffset, origin.endOffset),
+        new LoxNumber(value));
+  }
+
+  static Expr.Literal bool(Token origin, boolean value) {
+    return new Expr.Literal(new Token(value ? TokenType.TRUE : TokenType.FALSE, String.valueOf(value), value,
+        origin.startOffset, origin.endOffset), value ? LoxBoolean.TRUE : LoxBoolean.FALSE);
+  }
+
+  // A statement that does nothing and evaluates to nil
+  static Stmt noop() {
+    return new Stmt.ExprStmt(new Expr.Literal(new Token(TokenType.NIL, "nil", null, -1, -1), LoxNil.NIL));
+  }
+
+  static boolean isNoop(Stmt stmt) {
+    return stmt instanceof Stmt.ExprStmt e && e.expr instanceof Expr.Literal;
+  }
+
+  static boolean isDeclaration(Stmt stmt) {
+    return stmt instanceof Stmt.DeclStmt || stmt instanceof Stmt.FuncStmt || stmt instanceof Stmt.ClsStmt;
+  }
+
+  static boolean isIncrement(Token op) {
+    return op.type == TokenType.PLUS || op.type == TokenType.MINUS;
+  }
+
+  static boolean isComparison(Token op) {
+    return switch (op.type) {
+      case TokenType.EQUAL_EQUAL, TokenType.BANG_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL, TokenType.GREATER,
+          TokenType.GREATER_EQUAL -> true;
+      default -> false;
+    };
+  }
+
+  // Operands that can be evaluated any number of times, in any order
+  static boolean isSimple(Expr expr) {
+    return expr instanceof Expr.Literal || expr instanceof Expr.Variable;
+  }
+
+  // Whether both are the same variable, or both are `this`
+  static boolean isSameReference(Expr e1, Expr e2) {
+    if (e1 instanceof Expr.Variable v1 && e2 instanceof Expr.Variable v2) {
+      return v1.var.lexeme.equals(v2.var.lexeme);
+    }
+    return e1 instanceof Expr.This && e2 instanceof Expr.This;
+  }
+
+  static boolean alwaysReturns(Stmt stmt) {
+    return switch (stmt) {
+      case Stmt.ReturnStmt r -> true;
+      case Stmt.BlockStmt b -> b.stmts.stream().anyMatch(OptimizerUtils::alwaysReturns);
+      case Stmt.IfStmt i -> i.elseBranch != null && alwaysReturns(i.thenBranch) && alwaysReturns(i.elseBranch);
+      default -> false;
+    };
+  }
+}
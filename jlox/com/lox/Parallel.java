@@ -0,0 +1,167 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import com.lox.object.LoxFunction;
+import com.lox.object.LoxList;
+import com.lox.object.LoxNil;
+import com.lox.object.LoxNumber;
+import com.lox.object.LoxObject;
+
+// Data-parallel natives: parallelMap, parallelReduce and parallelFor. The
+// range of work is split in halves recursively until it is small enough, and
+// the halves run on the common ForkJoinPool. Each piece calls the Lox callback
+// through its own interpreter, so that workers never share frames. Those are
+// forks of the caller's interpreter (see Interpreter.fork), so the callbacks
+// have its limits, and are stopped along with its run.
+//
+// Callbacks run in the globals and heap of the caller, under the same data
+// race rules as tasks (see LoxTask). Everything they did is visible once the
+// native returns.
+public class Parallel {
+  private Parallel() {
+  }
+
+  public static LoxList map(LoxList list, LoxFunction fn) throws InterpreterException {
+    final LoxObject[] values = list.snapshot();
+    final LoxObject[] res = new LoxObject[values.length];
+    Parallel.run(new ForEach(Interpreter.current(), (interpreter, i) -> res[i] = interpreter.call(fn, List.of(values[i])),
+        0, values.length, Parallel.grain(values.length)));
+    return new LoxList(new ArrayList<>(Arrays.asList(res)));
+  }
+
+  // `fn` must be associative: the values are combined in order, but grouped
+  // in an unspecified way
+  public static LoxObject reduce(LoxList list, LoxFunction fn, LoxObject init) throws InterpreterException {
+    final LoxObject[] values = list.snapshot();
+    if (values.length == 0) {
+      return init;
+    }
+    final Interpreter parent = Interpreter.current();
+    final LoxObject res = Parallel.run(new Reduce(parent, values, fn, 0, values.length, Parallel.grain(values.length)));
+    return Interpreter.fork(parent).call(fn, List.of(init, res));
+  }
+
+  // Call `fn` with each integer in [lo, hi)
+  public static LoxObject forRange(double lo, double hi, LoxFunction fn) throws InterpreterException {
+    final long start = (long) Math.ceil(lo);
+    final int count = (int) Math.max(0, Math.min(Integer.MAX_VALUE, (long) Math.ceil(hi) - start));
+    Parallel.run(new ForEach(Interpreter.current(), (interpreter, i) -> interpreter.call(fn, List.of(new LoxNumber(start + i))),
+        0, count, Parallel.grain(count)));
+    return LoxNil.NIL;
+  }
+
+  // Size under which a range isn't split anymore: a few pieces per worker, so
+  // that uneven callbacks still balance
+  private static int grain(int size) {
+    return Math.max(1, size / (ForkJoinPool.getCommonPoolParallelism() * 8));
+  }
+
+  private static <T> T run(ForkJoinTask<T> task) throws InterpreterException {
+    try {
+      return ForkJoinPool.commonPool().invoke(task);
+    } catch (Failure f) {
+      throw new InterpreterException(f.error.message);
+    }
+  }
+
+  // Carries the error of a callback out of the ForkJoinPool, whose tasks can't
+  // throw checked exceptions
+  private static class Failure extends RuntimeException {
+    final InterpreterException error;
+
+    Failure(InterpreterException error) {
+      super(null, null, false, false);
+      this.error = error;
+    }
+  }
+
+  private interface Body {
+    void run(Interpreter interpreter, int i) throws InterpreterException;
+  }
+
+  private static class ForEach extends RecursiveAction {
+    private final Interpreter parent;
+    private final Body body;
+    private final int lo;
+    private final int hi;
+    private final int grain;
+
+    ForEach(Interpreter parent, Body body, int lo, int hi, int grain) {
+      this.parent = parent;
+      this.body = body;
+      this.lo = lo;
+      this.hi = hi;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.hi - this.lo > this.grain) {
+        final int mid = (this.lo + this.hi) >>> 1;
+        RecursiveAction.invokeAll(new ForEach(this.parent, this.body, this.lo, mid, this.grain),
+            new ForEach(this.parent, this.body, mid, this.hi, this.grain));
+        return;
+      }
+      final Interpreter interpreter = Interpreter.fork(this.parent);
+      try {
+        interpreter.run(() -> {
+          for (int i = this.lo; i < this.hi; ++i) {
+            this.body.run(interpreter, i);
+          }
+          return LoxNil.NIL;
+        });
+      } catch (InterpreterException e) {
+        throw new Failure(e);
+      }
+    }
+  }
+
+  private static class Reduce extends RecursiveTask<LoxObject> {
+    private final Interpreter parent;
+    private final LoxObject[] values;
+    private final LoxFunction fn;
+    private final int lo;
+    private final int hi;
+    private final int grain;
+
+    Reduce(Interpreter parent, LoxObject[] values, LoxFunction fn, int lo, int hi, int grain) {
+      this.parent = parent;
+      this.values = values;
+      this.fn = fn;
+      this.lo = lo;
+      this.hi = hi;
+      this.grain = grain;
+    }
+
+    @Override
+    protected LoxObject compute() {
+      final Interpreter interpreter = Interpreter.fork(this.parent);
+      try {
+        if (this.hi - this.lo > this.grain) {
+          final int mid = (this.lo + this.hi) >>> 1;
+          final Reduce right = new Reduce(this.parent, this.values, this.fn, mid, this.hi, this.grain);
+          right.fork();
+          final LoxObject left = new Reduce(this.parent, this.values, this.fn, this.lo, mid, this.grain).compute();
+          final LoxObject rightRes = right.join();
+          return interpreter.run(() -> interpreter.call(this.fn, List.of(left, rightRes)));
+        }
+        return interpreter.run(() -> {
+          LoxObject res = this.values[this.lo];
+          for (int i = this.lo + 1; i < this.hi; ++i) {
+            res = interpreter.call(this.fn, List.of(res, this.values[i]));
+          }
+          return res;
+        });
+      } catch (InterpreterException e) {
+        throw new Failure(e);
+      }
+    }
+  }
+}
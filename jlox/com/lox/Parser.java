@@ -25,6 +25,9 @@ public class Parser {
   private int currentOffset = 0;
   private List<Stmt> stmts = new ArrayList<Stmt>();
   private List<ParserException> errors = new ArrayList<>();
+  // First and last token of each successfully parsed top-level statement
+  private List<Pair<Token, Token>> topLevelBounds = new ArrayList<>();
+  private final ConstantPool constants = new ConstantPool();
 
   public Parser(List<Token> tokens) {
     this.tokens = tokens;
@@ -37,8 +40,10 @@ public class Parser {
     assert this.currentOffset == 0;
 
     while (!this.isAtEnd() && !this.match(TokenType.EOF)) {
+      final Token first = this.current();
       try {
         this.stmts.add(this.declaration());
+        this.topLevelBounds.add(new Pair<>(first, this.previous()));
       } catch (SynchronizationException e) {
         this.synchronizeStatementOrBlock();
       }
@@ -46,6 +51,10 @@ public class Parser {
     return new Pair<>(this.stmts, this.errors);
   }
 
+  public List<Pair<Token, Token>> topLevelBounds() {
+    return this.topLevelBounds;
+  }
+
   private boolean isAtEnd() {
     return this.currentOffset == tokens.size();
   }
@@ -601,19 +610,19 @@ public class Parser {
 
     if (this.match(TokenType.NUMBER)) {
       final Token number = this.previous();
-      return new Expr.Literal(number);
+      return new Expr.Literal(number, this.constants.constantOf(number));
     } else if (this.match(TokenType.STRING)) {
       final Token string = this.previous();
-      return new Expr.Literal(string);
+      return new Expr.Literal(string, this.constants.constantOf(string));
     } else if (this.match(TokenType.TRUE)) {
       final Token trueToken = this.previous();
-      return new Expr.Literal(trueToken);
+      return new Expr.Literal(trueToken, this.constants.constantOf(trueToken));
     } else if (this.match(TokenType.FALSE)) {
       final Token trueToken = this.previous();
-      return new Expr.Literal(trueToken);
+      return new Expr.Literal(trueToken, this.constants.constantOf(trueToken));
     } else if (this.match(TokenType.NIL)) {
       final Token nilToken = this.previous();
-      return new Expr.Literal(nilToken);
+      return new Expr.Literal(nilToken, this.constants.constantOf(nilToken));
     } else if (this.match(TokenType.LEFT_PAREN)) {
       final Expr inner = this.expression();
       if (!this.match(TokenType.RIGHT_PAREN)) {
@@ -92,6 +92,9 @@ public class PrettyPrinter {
         yield res + ")";
       }
       case Expr.SuperGet s -> String.format("(. super %s)", s.member.lexeme);
+      case Expr.VarIncrement v -> String.format("(%s= %s %s)", v.op.lexeme, v.var.var.lexeme, this.printExpr(v.delta));
+      case Expr.VarCompare v -> String.format("(var%s %s %s)", v.op.lexeme, v.var.var.lexeme, this.printExpr(v.right));
+      case Expr.FieldIncrement f -> String.format("(%s= (. %s %s) %s)", f.op.lexeme, this.printExpr(f.object), f.property.lexeme, this.printExpr(f.delta));
       default -> throw new Error("Non-exhaustive check");
     };
   }
@@ -0,0 +1,88 @@
+package com.lox;
+
+import java.util.List;
+
+import com.lox.ast.Stmt;
+import com.lox.ast.Token;
+import com.lox.utils.Pair;
+
+// A compiled program: scanned, parsed, optimized and analyzed once, then run
+// by any number of isolates, possibly concurrently.
+//
+// The analyses that the interpreter would otherwise run lazily (closures,
+// counted loops, inlinable functions) are all done here, so running a program
+// never writes to its syntax tree except for the call site caches, which are
+// safe to share (see Isolate).
+public class Program {
+  public final SourceFile source;
+  public final List<Stmt> stmts;
+  public final List<ScannerException> scannerErrors;
+  public final List<ParserException> parserErrors;
+
+  private Program(SourceFile source, List<Stmt> stmts, List<ScannerException> scannerErrors,
+      List<ParserException> parserErrors) {
+    this.source = source;
+    this.stmts = List.copyOf(stmts);
+    this.scannerErrors = List.copyOf(scannerErrors);
+    this.parserErrors = List.copyOf(parserErrors);
+    for (Stmt stmt : this.stmts) {
+      Program.analyze(stmt);
+    }
+  }
+
+  public static Program compile(SourceFile source) {
+    return Program.compile(source, true);
+  }
+
+  public static Program compile(SourceFile source, boolean optimize) {
+    final Pair<List<Token>, List<ScannerException>> scannerRes = new Scanner(source.text).tokenize();
+    if (scannerRes.second.size() > 0) {
+      return new Program(source, List.of(), scannerRes.second, List.of());
+    }
+    final Pair<List<Stmt>, List<ParserException>> parserRes = new Parser(scannerRes.first).parse();
+    if (parserRes.second.size() > 0) {
+      return new Program(source, List.of(), List.of(), parserRes.second);
+    }
+    final List<Stmt> stmts = optimize ? new Optimizer().optimize(parserRes.first) : parserRes.first;
+    return new Program(source, stmts, List.of(), List.of());
+  }
+
+  public boolean hasErrors() {
+    return this.scannerErrors.size() > 0 || this.parserErrors.size() > 0;
+  }
+
+  private static void analyze(Stmt stmt) {
+    switch (stmt) {
+      case Stmt.FuncStmt f -> {
+        ClosureAnalyzer.freeVariables(f);
+        Inliner.isInlinable(f);
+        Program.analyze(f.body);
+      }
+      case Stmt.ClsStmt c -> {
+        for (Stmt.FuncStmt method : c.methods) {
+          Program.analyze(method);
+        }
+      }
+      case Stmt.ForStmt f -> {
+        LoopAnalyzer.isCounted(f);
+        Program.analyze(f.init);
+        Program.analyze(f.cond);
+        Program.analyze(f.body);
+      }
+      case Stmt.WhileStmt w -> Program.analyze(w.body);
+      case Stmt.IfStmt i -> {
+        Program.analyze(i.thenBranch);
+        if (i.elseBranch != null) {
+          Program.analyze(i.elseBranch);
+        }
+      }
+      case Stmt.BlockStmt b -> {
+        for (Stmt s : b.stmts) {
+          Program.analyze(s);
+        }
+      }
+      default -> {
+      }
+    }
+  }
+}
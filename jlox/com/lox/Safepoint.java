@@ -0,0 +1,15 @@
+package com.lox;
+
+// A check the interpreter makes while running: it polls at every loop
+// back-edge and every call of a user function, and calls `reached` every
+// `interval()` polls. Until then, a poll only decrements a counter. With
+// several safepoints installed, all of them are reached at the smallest of
+// their intervals.
+public interface Safepoint {
+  // Number of polls before the next call to `reached`, at least 1
+  int interval();
+
+  // `polls` is the number of polls since the safepoints were last reached.
+  // May block, e.g. to let other runs go, or raise an error to stop the run.
+  void reached(int polls) throws InterpreterException;
+}
@@ -10,14 +10,29 @@ import com.lox.ast.TokenType;
 import com.lox.utils.Pair;
 
 public class Scanner {
-  private final String source;
+  private final CharSequence source;
   private final List<Token> tokens = new ArrayList<>();
   private final List<ScannerException> errors = new ArrayList<>();
 
-  private int currentOffset = 0;
+  private final int endOffset;
+  private int currentOffset;
 
-  public Scanner(String source) {
+  public Scanner(CharSequence source) {
     this.source = source;
+    this.currentOffset = 0;
+    this.endOffset = source.length();
+  }
+
+  // Scan only the range [startOffset, endOffset) of `source`, token offsets stay
+  // relative to the whole source
+  public Scanner(CharSequence source, int startOffset, int endOffset) {
+    this.source = source;
+    this.currentOffset = startOffset;
+    this.endOffset = endOffset;
+  }
+
+  private String text(int startOffset, int endOffset) {
+    return this.source.subSequence(startOffset, endOffset).toString();
   }
 
   public Pair<List<Token>, List<ScannerException>> tokenize() {
@@ -45,7 +60,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             TokenType.LEFT_PAREN,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -54,7 +69,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             TokenType.RIGHT_PAREN,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -63,7 +78,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             TokenType.LEFT_BRACE,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -72,7 +87,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             TokenType.RIGHT_BRACE,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -81,7 +96,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             TokenType.COMMA,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -90,7 +105,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             TokenType.DOT,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -99,7 +114,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             TokenType.MINUS,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -108,7 +123,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             TokenType.PLUS,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -117,7 +132,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             TokenType.SEMICOLON,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -126,7 +141,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             TokenType.STAR,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -135,7 +150,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             this.match('=') ? TokenType.BANG_EQUAL : TokenType.BANG,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -144,7 +159,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             this.match('=') ? TokenType.EQUAL_EQUAL : TokenType.EQUAL,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -153,7 +168,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             this.match('=') ? TokenType.LESS_EQUAL : TokenType.LESS,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -162,7 +177,7 @@ public class Scanner {
         this.advance();
         this.tokens.add(new Token(
             this.match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -172,11 +187,16 @@ public class Scanner {
         if (this.match('/')) {
           while (this.peek() != '\n' && !this.isAtEnd())
             this.advance();
+          // The comment would swallow text past the scanned range
+          if (this.currentOffset < this.source.length() && this.source.charAt(this.currentOffset) != '\n') {
+            throw new ScannerException("Comment runs past the end of the scanned range", startOffset,
+                this.currentOffset);
+          }
           break;
         }
         this.tokens.add(new Token(
             TokenType.SLASH,
-            this.source.substring(startOffset, this.currentOffset),
+            this.text(startOffset, this.currentOffset),
             null,
             startOffset,
             this.currentOffset));
@@ -202,7 +222,7 @@ public class Scanner {
   }
 
   private boolean isAtEnd() {
-    return this.currentOffset >= source.length();
+    return this.currentOffset >= this.endOffset;
   }
 
   private void extractString() throws ScannerException {
@@ -224,8 +244,8 @@ public class Scanner {
 
     this.tokens.add(new Token(
         TokenType.STRING,
-        this.source.substring(startOffset, this.currentOffset),
-        this.source.substring(startOffset + 1, this.currentOffset - 1),
+        this.text(startOffset, this.currentOffset),
+        this.text(startOffset + 1, this.currentOffset - 1),
         startOffset,
         this.currentOffset));
   }
@@ -248,8 +268,8 @@ public class Scanner {
     try {
       this.tokens.add(new Token(
           TokenType.NUMBER,
-          this.source.substring(startOffset, this.currentOffset),
-          Double.parseDouble(source.substring(startOffset, this.currentOffset)),
+          this.text(startOffset, this.currentOffset),
+          Double.parseDouble(this.text(startOffset, this.currentOffset)),
           startOffset,
           this.currentOffset));
     } catch (Exception e) {
@@ -264,14 +284,14 @@ public class Scanner {
     while (ScannerUtils.isAlphaNumericOrUnderscore(this.peek()))
       this.advance();
 
-    String text = source.substring(startOffset, this.currentOffset);
+    String text = this.text(startOffset, this.currentOffset);
     TokenType type = ScannerUtils.keywords.get(text);
     if (type == null)
       type = TokenType.IDENTIFIER;
 
     this.tokens.add(new Token(
         type,
-        this.source.substring(startOffset, this.currentOffset),
+        this.text(startOffset, this.currentOffset),
         type == TokenType.TRUE ? Boolean.valueOf(true)
             : type == TokenType.FALSE ? Boolean.valueOf(false)
                 : null,
@@ -0,0 +1,182 @@
+package com.lox;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.lox.object.LoxObject;
+
+// Time-slices runs over a fixed number of carriers: at most `carriers` runs
+// interpret at once, and the others wait for a carrier in FIFO order. A run
+// gives up its carrier at a safepoint once it has held it for `quantum` and
+// some other run is waiting, then queues again behind it. So a long loop
+// can't starve shorter runs, and a run waits at most about
+// (queued runs / carriers) quanta for its turn.
+//
+// Runs are meant to be on virtual threads (see LoxExecutor), so that a
+// suspended run only keeps its stack. The tasks a run spawns interpret on the
+// carrier of the run: they are suspended along with it while it waits for a
+// carrier again.
+//
+// A run blocked in a native, e.g. on a channel, gives up its carrier while it
+// waits (see `blocking`), and queues for one again once it is done waiting.
+// If a task of the run is still interpreting meanwhile, it takes the carrier
+// back at its next safepoint.
+public class Scheduler {
+  // Polls between two reads of the clock
+  private static final int CLOCK_INTERVAL = 256;
+
+  public interface Body {
+    LoxObject run() throws InterpreterException;
+  }
+
+  // Closing it ends the wait, and never throws
+  public interface Blocking extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private final Semaphore carriers;
+  private final long quantumNanos;
+
+  public Scheduler(int carriers, Duration quantum) {
+    if (carriers < 1) {
+      throw new IllegalArgumentException("A scheduler needs at least one carrier");
+    }
+    this.carriers = new Semaphore(carriers, true);
+    this.quantumNanos = quantum.toNanos();
+  }
+
+  // Run `body` on a carrier, with `interpreter` time-sliced while it does
+  public LoxObject run(Interpreter interpreter, Body body) throws InterpreterException {
+    this.carriers.acquireUninterruptibly();
+    final Slice slice = new Slice();
+    interpreter.addSafepoint(slice);
+    try {
+      return body.run();
+    } finally {
+      interpreter.removeSafepoint(slice);
+      slice.end();
+    }
+  }
+
+  // Wrap a native that may block, e.g. on a channel, so that the run of the
+  // running thread, if it is time-sliced, gives up its carrier until the
+  // result is closed:
+  //
+  //   try (Scheduler.Blocking blocking = Scheduler.blocking()) {
+  //     semaphore.acquire();
+  //   }
+  public static Blocking blocking() {
+    final Interpreter interpreter = Interpreter.current();
+    final Slice slice = interpreter != null ? interpreter.safepoint(Slice.class) : null;
+    if (slice == null) {
+      return () -> {};
+    }
+    slice.block();
+    return slice::unblock;
+  }
+
+  // Shared by the interpreters of a run and of its tasks (see
+  // Interpreter.fork), which reach it from several threads. The first one to
+  // find the quantum over hands the carrier over, and the others wait for the
+  // lock until the run has it back.
+  private class Slice implements Safepoint {
+    // Not a monitor: a virtual thread blocked in one can't leave its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long start = System.nanoTime();
+    // Whether the run holds its carrier, which it gives up while it blocks
+    private volatile boolean isHeld = true;
+    // Tasks that outlive the run must not take a carrier again
+    private boolean isEnded = false;
+
+    @Override
+    public int interval() {
+      return CLOCK_INTERVAL;
+    }
+
+    @Override
+    public void reached(int polls) {
+      final boolean isHeld = this.isHeld;
+      if (isHeld && System.nanoTime() - this.start < Scheduler.this.quantumNanos) {
+        return;
+      }
+      if (isHeld) {
+        // Runs that were just submitted may not have had a carrier thread to
+        // queue on yet: give them the thread of this one. Thread.yield() won't
+        // do, as a yielding virtual thread goes back to the local queue of its
+        // carrier, ahead of threads submitted from outside. A virtual thread
+        // woken up from a park is resubmitted from outside, behind them.
+        LockSupport.parkNanos(1);
+      }
+      this.lock.lock();
+      try {
+        if (this.isEnded) {
+          return;
+        }
+        if (!this.isHeld) {
+          // Another thread of the run blocked, but this one still interprets
+          this.take();
+          return;
+        }
+        if (System.nanoTime() - this.start < Scheduler.this.quantumNanos) {
+          return;
+        }
+        if (Scheduler.this.carriers.hasQueuedThreads()) {
+          // The carrier goes to the first waiting run, as the semaphore is fair
+          Scheduler.this.carriers.release();
+          Scheduler.this.carriers.acquireUninterruptibly();
+        }
+        this.start = System.nanoTime();
+      } finally {
+        this.lock.unlock();
+      }
+    }
+
+    void block() {
+      this.lock.lock();
+      try {
+        this.give();
+      } finally {
+        this.lock.unlock();
+      }
+    }
+
+    // The other threads of the run wait for the lock meanwhile, as they would
+    // at a safepoint
+    void unblock() {
+      this.lock.lock();
+      try {
+        if (!this.isEnded && !this.isHeld) {
+          this.take();
+        }
+      } finally {
+        this.lock.unlock();
+      }
+    }
+
+    void end() {
+      this.lock.lock();
+      try {
+        this.isEnded = true;
+        this.give();
+      } finally {
+        this.lock.unlock();
+      }
+    }
+
+    private void give() {
+      if (this.isHeld) {
+        this.isHeld = false;
+        Scheduler.this.carriers.release();
+      }
+    }
+
+    private void take() {
+      Scheduler.this.carriers.acquireUninterruptibly();
+      this.isHeld = true;
+      this.start = System.nanoTime();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package com.lox;
+
+import java.util.Arrays;
+
+import com.lox.utils.Pair;
+
+// A source text along with its name and the offsets at which its lines start,
+// so that an offset can be mapped to a line and column in O(log n)
+public class SourceFile {
+  public final String name;
+  public final String text;
+  private final int[] lineStarts;
+
+  public SourceFile(String name, String text) {
+    this.name = name;
+    this.text = text;
+
+    int lineCount = 1;
+    for (int i = 0; i < text.length(); ++i) {
+      if (text.charAt(i) == '\n') {
+        lineCount += 1;
+      }
+    }
+    this.lineStarts = new int[lineCount];
+    int line = 1;
+    for (int i = 0; i < text.length(); ++i) {
+      if (text.charAt(i) == '\n') {
+        this.lineStarts[line++] = i + 1;
+      }
+    }
+  }
+
+  public int lineCount() {
+    return this.lineStarts.length;
+  }
+
+  // 1-based line of `offset`
+  public int lineOf(int offset) {
+    if (offset < 0 || offset > this.text.length()) {
+      throw new IndexOutOfBoundsException("Offset " + offset + " is out of the source range");
+    }
+    final int index = Arrays.binarySearch(this.lineStarts, offset);
+    // When `offset` is not a line start, binarySearch returns -(insertion point) - 1
+    return index >= 0 ? index + 1 : -index - 1;
+  }
+
+  // 1-based line and column of `offset`
+  public Pair<Integer, Integer> getLineAndCol(int offset) {
+    final int line = this.lineOf(offset);
+    return new Pair<>(line, offset - this.lineStarts[line - 1] + 1);
+  }
+}
@@ -0,0 +1,128 @@
+package com.lox;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The threads of one run: the thread that started it, and those of the
+// tasks, generators and parallel callbacks it started, transitively. They
+// join the group while they interpret (see Interpreter.run), and their
+// interpreters have it as a safepoint.
+//
+// Cancelling the group stops all of them: the threads that interpret fail at
+// their next safepoint, and those blocked in a native are interrupted, which
+// the blocking natives turn into errors. A confined run (see Isolate.run)
+// cancels its group once it ends, so that its tasks don't outlive it, and
+// once its time limit passes, so that a blocked run can't outlive that.
+public class TaskGroup implements Safepoint {
+  private static final int CHECK_INTERVAL = 256;
+  // Fires the time limits of all the runs
+  private static final ScheduledThreadPoolExecutor timers = TaskGroup.createTimers();
+
+  // Not a monitor: a virtual thread blocked in one can't leave its carrier
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Set<Thread> threads = new HashSet<>();
+  private volatile String reason = null;
+  private ScheduledFuture<?> timer = null;
+
+  // Add the running thread to the group, and return whether it wasn't in it
+  // already. A thread that joins a cancelled group is interrupted right away.
+  public boolean enter() {
+    this.lock.lock();
+    try {
+      if (this.reason != null) {
+        Thread.currentThread().interrupt();
+      }
+      return this.threads.add(Thread.currentThread());
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  // Remove the running thread from the group. Threads are only interrupted
+  // while they are in the group, so the interrupt of a cancelled group is
+  // cleared here, and doesn't leak to whatever the thread runs next.
+  public void leave() {
+    this.lock.lock();
+    try {
+      this.threads.remove(Thread.currentThread());
+      if (this.reason != null) {
+        Thread.interrupted();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  // Stop every thread of the group, which fail with `reason` if they
+  // interpret. Only the first reason is kept.
+  public void cancel(String reason) {
+    this.lock.lock();
+    try {
+      if (this.reason == null) {
+        this.reason = reason;
+      }
+      for (Thread thread : this.threads) {
+        thread.interrupt();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  // Why the group was cancelled, or null if it wasn't
+  public String reason() {
+    return this.reason;
+  }
+
+  // Cancel the group with `reason` once `delay` has passed
+  void cancelAfter(Duration delay, String reason) {
+    this.lock.lock();
+    try {
+      this.timer = TaskGroup.timers.schedule(() -> this.cancel(reason), delay.toNanos(), TimeUnit.NANOSECONDS);
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  // Stop the threads still running once their run is over
+  void end() {
+    this.lock.lock();
+    try {
+      if (this.timer != null) {
+        this.timer.cancel(false);
+      }
+    } finally {
+      this.lock.unlock();
+    }
+    this.cancel("The run has ended");
+  }
+
+  private static ScheduledThreadPoolExecutor createTimers() {
+    final ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1, runnable -> {
+      final Thread thread = new Thread(runnable, "lox-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Most runs end before their time limit
+    timers.setRemoveOnCancelPolicy(true);
+    return timers;
+  }
+
+  @Override
+  public int interval() {
+    return CHECK_INTERVAL;
+  }
+
+  @Override
+  public void reached(int polls) throws InterpreterException {
+    final String reason = this.reason;
+    if (reason != null) {
+      throw new InterpreterException(reason);
+    }
+  }
+}
@@ -1,7 +1,14 @@
 package com.lox.ast;
 
+import java.lang.ref.WeakReference;
 import java.util.List;
 
+import com.lox.Cell;
+import com.lox.Environment;
+import com.lox.object.LoxClass;
+import com.lox.object.LoxObject;
+import com.lox.utils.Assumption;
+
 public abstract class Expr extends SyntaxNode {
   public static class Binary extends Expr {
     public final Expr left;
@@ -27,18 +34,48 @@ public abstract class Expr extends SyntaxNode {
 
   public static class Literal extends Expr {
     public final Token value;
+    // Runtime value of the literal, built once
+    public final LoxObject constant;
 
-    public Literal(Token value) {
+    public Literal(Token value, LoxObject constant) {
       this.value = value;
+      this.constant = constant;
     }
   }
 
   public static class Variable extends Expr {
     public final Token var;
+    // Resolution of the site, maintained by the interpreter
+    public boolean isLocal = false;
+    public boolean isGlobal = false;
+    // Held weakly, as it refers to the globals of an isolate, which a program
+    // run by several isolates must not keep alive. The cell of the global owns
+    // it instead (see Cell.cache).
+    public WeakReference<GlobalCache> globalCache = null;
+    // Whether the site ran in several globals, which would otherwise keep
+    // overwriting each other's cache: it then looks its global up by name in
+    // the globals it runs with
+    public boolean isShared = false;
 
     public Variable(Token var) {
       this.var = var;
     }
+
+    // `cell` is the global the site refers to in `globals`, and `value` its
+    // value while `constant` holds
+    public static class GlobalCache {
+      public final Environment globals;
+      public final Cell cell;
+      public final Assumption constant;
+      public final LoxObject value;
+
+      public GlobalCache(Environment globals, Cell cell, Assumption constant, LoxObject value) {
+        this.globals = globals;
+        this.cell = cell;
+        this.constant = constant;
+        this.value = value;
+      }
+    }
   }
 
   public static class Grouping extends Expr {
@@ -52,6 +89,11 @@ public abstract class Expr extends SyntaxNode {
   public static class Call extends Expr {
     public final Expr callee;
     public final List<Expr> params;
+    // Profile of the call site, maintained by the interpreter: the function
+    // last called from here, and how many times in a row. Threads running the
+    // same program race on it, which may only delay inlining.
+    public Stmt.FuncStmt profiledCallee = null;
+    public int profiledCount = 0;
 
     public Call(Expr callee, List<Expr> params) {
       this.callee = callee;
@@ -62,11 +104,30 @@ public abstract class Expr extends SyntaxNode {
   public static class Get extends Expr {
     public final Expr object;
     public final Token property;
+    // Method cache of the site, maintained by the interpreter. Held weakly, as
+    // it refers to a class of an isolate, which a program run by several
+    // isolates must not keep alive. The class owns it instead (see
+    // LoxClass.methodCache).
+    public WeakReference<MethodCache> methodCache = null;
 
     public Get(Expr object, Token property) {
       this.object = object;
       this.property = property;
     }
+
+    // `method` is what the property resolves to on `cls` and, while
+    // `assumption` holds, on all of its subclasses
+    public static class MethodCache {
+      public final LoxClass cls;
+      public final LoxObject method;
+      public final Assumption assumption;
+
+      public MethodCache(LoxClass cls, LoxObject method, Assumption assumption) {
+        this.cls = cls;
+        this.method = method;
+        this.assumption = assumption;
+      }
+    }
   }
 
   public static class Set extends Expr {
@@ -99,4 +160,50 @@ public abstract class Expr extends SyntaxNode {
 
   public static class This extends Expr {
   }
+
+  // Fused nodes, built by the Optimizer for common idioms so that they are
+  // evaluated in a single dispatch. Their operands have no side effects:
+  // `delta` and `right` are always literals or variables.
+
+  // var = var + delta, var = var - delta
+  public static class VarIncrement extends Expr {
+    public final Variable var;
+    public final Token op;
+    public final Expr delta;
+
+    public VarIncrement(Variable var, Token op, Expr delta) {
+      this.var = var;
+      this.op = op;
+      this.delta = delta;
+    }
+  }
+
+  // var < right, var == right, ... for any comparison operator
+  public static class VarCompare extends Expr {
+    public final Variable var;
+    public final Token op;
+    public final Expr right;
+
+    public VarCompare(Variable var, Token op, Expr right) {
+      this.var = var;
+      this.op = op;
+      this.right = right;
+    }
+  }
+
+  // object.property = object.property + delta (or - delta), where `object` is a
+  // variable or `this`
+  public static class FieldIncrement extends Expr {
+    public final Expr object;
+    public final Token property;
+    public final Token op;
+    public final Expr delta;
+
+    public FieldIncrement(Expr object, Token property, Token op, Expr delta) {
+      this.object = object;
+      this.property = property;
+      this.op = op;
+      this.delta = delta;
+    }
+  }
 }
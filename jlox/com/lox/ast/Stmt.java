@@ -41,6 +41,13 @@ public abstract class Stmt extends SyntaxNode {
     public final Token name;
     public final List<Token> params;
     public final BlockStmt body;
+    // Names used but not declared by the function, filled lazily by ClosureAnalyzer.
+    // Written last, so that a thread seeing it also sees hasNestedClosures.
+    public volatile List<String> freeVariables = null;
+    // Whether a function or class is declared inside, filled along with freeVariables
+    public boolean hasNestedClosures = false;
+    // Whether calls can be replaced by the body, filled lazily by Inliner
+    public volatile Boolean isInlinable = null;
 
     public FuncStmt(Token name, List<Token> params, BlockStmt body) {
       this.name = name;
@@ -88,6 +95,11 @@ public abstract class Stmt extends SyntaxNode {
     public final ExprStmt cond;
     public final Expr post;
     public final Stmt body;
+    // Whether this is a counted loop, filled lazily by LoopAnalyzer. Written
+    // last, so that a thread seeing it also sees readsCounter.
+    public volatile Boolean isCounted = null;
+    // Whether the body of a counted loop reads the counter
+    public boolean readsCounter = false;
 
     public ForStmt(Stmt init, ExprStmt cond, Expr post, Stmt body) {
       assert init instanceof DeclStmt || init instanceof ExprStmt;
@@ -100,9 +112,13 @@ public abstract class Stmt extends SyntaxNode {
 
   public static class BlockStmt extends Stmt {
     public final List<Stmt> stmts;
+    // Whether the block declares a variable, function or class of its own
+    public final boolean hasDeclarations;
 
     public BlockStmt(List<Stmt> stmts) {
       this.stmts = stmts;
+      this.hasDeclarations = stmts.stream()
+          .anyMatch(s -> s instanceof DeclStmt || s instanceof FuncStmt || s instanceof ClsStmt);
     }
   }
 }
@@ -1,11 +1,9 @@
 package com.lox.object;
 
-import java.util.ArrayList;
-
 import com.lox.InterpreterException;
 
 public class LoxBoolean extends LoxObject {
-  public static final LoxClass OBJECT = new LoxClass("Boolean", LoxBoolean.OBJECT, new ArrayList<>());
+  public static final LoxClass OBJECT = LoxClass.builtin("Boolean", LoxBoolean.OBJECT);
 
   public final boolean value;
 
@@ -29,6 +27,6 @@ public class LoxBoolean extends LoxObject {
     throw new InterpreterException("Boolean is immutable");
   }
 
-  public static LoxBoolean FALSE = new LoxBoolean(false);
-  public static LoxBoolean TRUE = new LoxBoolean(true);
+  public static final LoxBoolean FALSE = new LoxBoolean(false);
+  public static final LoxBoolean TRUE = new LoxBoolean(true);
 }
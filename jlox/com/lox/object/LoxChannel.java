@@ -0,0 +1,119 @@
+package com.lox.object;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.lox.InterpreterException;
+import com.lox.Scheduler;
+
+// A bounded FIFO channel between tasks (see LoxTask). Values go through a
+// lock-free queue, and two semaphores count its free slots and its values, so
+// that a blocked `send` or `receive` only parks its (virtual) thread.
+//
+// Once the channel is closed, `send` raises an error and `receive` returns the
+// values still queued, then nil. A `send` racing with `close` may go either
+// way.
+public class LoxChannel extends LoxObject {
+  public static final LoxClass OBJECT = LoxClass.builtin("Channel", LoxObject.OBJECT, List.of(
+      new LoxFunction.LoxForeignMethod("send") {
+        @Override
+        public int arity() {
+          return 1;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxChannel) self).send(arguments.get(0));
+        }
+      },
+      new LoxFunction.LoxForeignMethod("receive") {
+        @Override
+        public int arity() {
+          return 0;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxChannel) self).receive();
+        }
+      },
+      new LoxFunction.LoxForeignMethod("close") {
+        @Override
+        public int arity() {
+          return 0;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxChannel) self).close();
+        }
+      }));
+
+  private final Queue<LoxObject> values = new ConcurrentLinkedQueue<>();
+  private final Semaphore slots;
+  private final Semaphore queued = new Semaphore(0);
+  private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+  public LoxChannel(int capacity) {
+    super();
+    this.slots = new Semaphore(capacity);
+  }
+
+  public LoxObject send(LoxObject value) throws InterpreterException {
+    if (this.isClosed.get()) {
+      throw new InterpreterException("Send on a closed channel");
+    }
+    LoxChannel.acquire(this.slots);
+    if (this.isClosed.get()) {
+      // Pass the wake-up on to the next blocked sender
+      this.slots.release();
+      throw new InterpreterException("Send on a closed channel");
+    }
+    this.values.offer(value);
+    this.queued.release();
+    return LoxNil.NIL;
+  }
+
+  public LoxObject receive() throws InterpreterException {
+    LoxChannel.acquire(this.queued);
+    final LoxObject value = this.values.poll();
+    if (value == null) {
+      // Closed and drained: pass the wake-up on to the next blocked receiver
+      this.queued.release();
+      return LoxNil.NIL;
+    }
+    this.slots.release();
+    return value;
+  }
+
+  public LoxObject close() throws InterpreterException {
+    if (!this.isClosed.compareAndSet(false, true)) {
+      throw new InterpreterException("Channel is already closed");
+    }
+    this.queued.release();
+    this.slots.release();
+    return LoxNil.NIL;
+  }
+
+  private static void acquire(Semaphore semaphore) throws InterpreterException {
+    try (Scheduler.Blocking blocking = Scheduler.blocking()) {
+      semaphore.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterpreterException("Interrupted while waiting on a channel");
+    }
+  }
+
+  @Override
+  public LoxClass cls() {
+    return LoxChannel.OBJECT;
+  }
+
+  @Override
+  public String toString() {
+    return "<channel>";
+  }
+}
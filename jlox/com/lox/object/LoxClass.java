@@ -1,27 +1,53 @@
 package com.lox.object;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.lox.Interpreter;
 import com.lox.InterpreterException;
 import com.lox.SpecialSymbols;
+import com.lox.ast.Expr;
 import com.lox.object.LoxObject;
+import com.lox.utils.Assumption;
 import com.lox.utils.Pair;
 
 public class LoxClass extends LoxObject {
-  public static final LoxClass OBJECT = new LoxClass("Class", LoxObject.OBJECT, new ArrayList<>());
+  public static final LoxClass OBJECT = LoxClass.builtin("Class", LoxObject.OBJECT);
+  // Never holds: the method caches of builtin classes only match receivers of
+  // that very class
+  private static final Assumption EXACT_CLASS = LoxClass.brokenAssumption();
 
   public final String name;
   public final LoxClass supercls;
   public final Map<String, LoxFunction> methods;
+  // Builtin classes are shared by all isolates, so they can't be mutated
+  public final boolean isBuiltin;
+  // The superclass chain, from its root down to this class, so that a class
+  // at depth d derives from `cls` iff `ancestors[cls.depth()] == cls`
+  private final LoxClass[] ancestors;
+  // Results of lookupMethod. A class never changes once created, so they never
+  // go stale. Concurrent, as builtin classes are shared across threads.
+  // Builtin classes only keep the methods they have, so that the names that
+  // scripts look up can't grow them without bound.
+  private final Map<String, LoxObject> resolvedMethods = new ConcurrentHashMap<>();
+  // For each method name, the assumption that no subclass overrides it. Only
+  // for user classes: builtin ones are shared by all isolates, which must not
+  // grow their maps or invalidate each other's caches.
+  private final Map<String, Assumption> notOverridden = new ConcurrentHashMap<>();
+  // Caches of the sites that read methods of this class, which they only
+  // hold weakly, so that they live as long as the class
+  private final Map<String, Expr.Get.MethodCache> methodCaches = new ConcurrentHashMap<>();
 
   public LoxClass(String name, List<LoxFunction> methods) {
     super();
     this.name = name;
+    this.isBuiltin = false;
     this.supercls = LoxObject.OBJECT;
+    this.ancestors = LoxClass.ancestorsOf(this);
     this.methods = new HashMap<>();
     for (LoxFunction method : methods) {
       this.methods.put(method.name(), method);
@@ -29,26 +55,76 @@ public class LoxClass extends LoxObject {
   }
 
   public LoxClass(String name, LoxClass supercls, List<LoxFunction> methods) {
+    this(name, supercls, methods, false);
+  }
+
+  private LoxClass(String name, LoxClass supercls, List<LoxFunction> methods, boolean isBuiltin) {
     super();
     this.name = name;
+    this.isBuiltin = isBuiltin;
     this.supercls = supercls;
+    this.ancestors = LoxClass.ancestorsOf(this);
     this.methods = new HashMap<>();
     for (LoxFunction method : methods) {
       this.methods.put(method.name(), method);
     }
+    // The superclass chain of builtin classes may end with null, as they are
+    // created during class initialization
+    for (LoxClass cls = this.supercls; cls != null; cls = cls == LoxObject.OBJECT ? null : cls.supercls) {
+      if (cls.isBuiltin) {
+        continue;
+      }
+      for (String methodName : this.methods.keySet()) {
+        cls.notOverridden(methodName).invalidate();
+      }
+    }
+  }
+
+  public static LoxClass builtin(String name, LoxClass supercls) {
+    return LoxClass.builtin(name, supercls, new ArrayList<>());
+  }
+
+  // `methods` are shared by all isolates, so they must be stateless natives
+  public static LoxClass builtin(String name, LoxClass supercls, List<LoxFunction> methods) {
+    return new LoxClass(name, supercls, methods, true);
+  }
+
+  // Holds as long as `name` resolves to the same method on this class and all
+  // of its subclasses
+  public Assumption notOverridden(String name) {
+    if (this.isBuiltin) {
+      throw new Error("Builtin classes don't track overrides");
+    }
+    return this.notOverridden.computeIfAbsent(name, n -> new Assumption());
+  }
+
+  private static Assumption brokenAssumption() {
+    final Assumption res = new Assumption();
+    res.invalidate();
+    return res;
+  }
+
+  // The superclass chain of builtin classes created before Object ends with
+  // null instead
+  private static LoxClass[] ancestorsOf(LoxClass cls) {
+    if (cls.supercls == null) {
+      return new LoxClass[] { cls };
+    }
+    final LoxClass[] res = Arrays.copyOf(cls.supercls.ancestors, cls.supercls.ancestors.length + 1);
+    res[res.length - 1] = cls;
+    return res;
+  }
+
+  private int depth() {
+    return this.ancestors.length - 1;
   }
 
   public boolean isSubclass(LoxClass cls) {
-    if (cls == this || cls == LoxObject.OBJECT)
+    if (cls == LoxObject.OBJECT) {
       return true;
-    LoxClass curCls = this.supercls;
-    while (curCls != LoxObject.OBJECT) {
-      if (curCls == cls) {
-        return true;
-      }
-      curCls = curCls.supercls;
     }
-    return false;
+    final int depth = cls.depth();
+    return depth < this.ancestors.length && this.ancestors[depth] == cls;
   }
 
   public boolean isSuperclass(LoxClass cls) {
@@ -66,28 +142,56 @@ public class LoxClass extends LoxObject {
     return res.concatEnv(symbols);
   }
 
+  public Expr.Get.MethodCache methodCache(String name) {
+    if (!this.isBuiltin) {
+      return this.methodCaches.computeIfAbsent(name,
+          n -> new Expr.Get.MethodCache(this, this.lookupMethod(n), this.notOverridden(n)));
+    }
+    final Expr.Get.MethodCache cache = this.methodCaches.get(name);
+    if (cache != null) {
+      return cache;
+    }
+    final LoxObject method = this.lookupMethod(name);
+    final Expr.Get.MethodCache res = new Expr.Get.MethodCache(this, method, EXACT_CLASS);
+    if (method == LoxNil.NIL) {
+      // Only the site holds it, weakly
+      return res;
+    }
+    final Expr.Get.MethodCache existing = this.methodCaches.putIfAbsent(name, res);
+    return existing != null ? existing : res;
+  }
+
   public LoxObject lookupMethod(String name) {
-    LoxObject res = LoxNil.NIL;
+    LoxObject res = this.resolvedMethods.get(name);
+    if (res != null) {
+      return res;
+    }
+    res = LoxNil.NIL;
     LoxClass curCls = this;
     while (res == LoxNil.NIL && curCls != LoxObject.OBJECT) {
       res = curCls.lookupOwnMethod(name);
       curCls = curCls.supercls;
     }
-    return res == LoxNil.NIL ? LoxObject.OBJECT.lookupOwnMethod(name) : res;
+    res = res == LoxNil.NIL ? LoxObject.OBJECT.lookupOwnMethod(name) : res;
+    if (!this.isBuiltin || res != LoxNil.NIL) {
+      this.resolvedMethods.put(name, res);
+    }
+    return res;
   }
 
   public LoxObject lookupMethod(String name, LoxClass startCls) {
     if (!this.isSubclass(startCls)) {
       throw new Error("Lookup method must start from a superclass");
     }
+    return startCls.lookupMethod(name);
+  }
 
-    LoxObject res = LoxNil.NIL;
-    LoxClass curCls = startCls;
-    while (res == LoxNil.NIL && curCls != LoxObject.OBJECT) {
-      res = curCls.lookupOwnMethod(name);
-      curCls = curCls.supercls;
+  @Override
+  public void set(String prop, LoxObject value) throws InterpreterException {
+    if (this.isBuiltin) {
+      throw new InterpreterException(String.format("Class '%s' is immutable", this.name));
     }
-    return res == LoxNil.NIL ? LoxObject.OBJECT.lookupOwnMethod(name) : res;
+    super.set(prop, value);
   }
 
   @Override
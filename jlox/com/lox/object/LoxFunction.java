@@ -1,6 +1,5 @@
 package com.lox.object;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -8,10 +7,11 @@ import com.lox.Environment;
 import com.lox.Interpreter;
 import com.lox.InterpreterException;
 import com.lox.NonLocalJump;
+import com.lox.SpecialSymbols;
 import com.lox.ast.Stmt.FuncStmt;
 
 public abstract class LoxFunction extends LoxObject {
-  public static final LoxClass OBJECT = new LoxClass("Function", LoxObject.OBJECT, new ArrayList<>());
+  public static final LoxClass OBJECT = LoxClass.builtin("Function", LoxObject.OBJECT);
 
   public abstract String name();
 
@@ -34,7 +34,50 @@ public abstract class LoxFunction extends LoxObject {
       this.fname = name;
     }
 
-    public abstract LoxObject call(List<LoxObject> arguments) throws InterpreterException;
+    // Natives implement the entry point matching their arity. The interpreter
+    // calls it directly when the call site has at most 4 arguments, so that
+    // no argument list is allocated. Natives taking more arguments override
+    // call(List) instead.
+    public LoxObject call() throws InterpreterException {
+      throw this.noEntryPoint(0);
+    }
+
+    public LoxObject call(LoxObject a) throws InterpreterException {
+      throw this.noEntryPoint(1);
+    }
+
+    public LoxObject call(LoxObject a, LoxObject b) throws InterpreterException {
+      throw this.noEntryPoint(2);
+    }
+
+    public LoxObject call(LoxObject a, LoxObject b, LoxObject c) throws InterpreterException {
+      throw this.noEntryPoint(3);
+    }
+
+    public LoxObject call(LoxObject a, LoxObject b, LoxObject c, LoxObject d) throws InterpreterException {
+      throw this.noEntryPoint(4);
+    }
+
+    public LoxObject call(List<LoxObject> arguments) throws InterpreterException {
+      return switch (arguments.size()) {
+        case 0 -> this.call();
+        case 1 -> this.call(arguments.get(0));
+        case 2 -> this.call(arguments.get(0), arguments.get(1));
+        case 3 -> this.call(arguments.get(0), arguments.get(1), arguments.get(2));
+        case 4 -> this.call(arguments.get(0), arguments.get(1), arguments.get(2), arguments.get(3));
+        default -> throw this.noEntryPoint(arguments.size());
+      };
+    }
+
+    // Whether calls build or grow a container, and so count as an allocation
+    // (see ExecutionBudget)
+    public boolean allocates() {
+      return false;
+    }
+
+    private Error noEntryPoint(int argCount) {
+      return new Error(String.format("Native function '%s' has no entry point for %s argument(s)", this.fname, argCount));
+    }
 
     @Override
     public String name() {
@@ -57,9 +100,70 @@ public abstract class LoxFunction extends LoxObject {
     }
   }
 
+  // A native method of a builtin class. Binding it to an object (see
+  // LoxObject.bindMethod) gives a native function that receives the object.
+  public static abstract class LoxForeignMethod extends LoxForeignFunction {
+    public LoxForeignMethod(String name) {
+      super(name);
+    }
+
+    public abstract LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException;
+
+    @Override
+    public LoxFunction concatEnv(Map<String, LoxObject> symbols) {
+      final LoxObject self = symbols.get(SpecialSymbols.THIS_OBJECT);
+      if (self == null) {
+        return this;
+      }
+      final LoxForeignMethod method = this;
+      return new LoxForeignFunction(this.fname) {
+        @Override
+        public int arity() {
+          return method.arity();
+        }
+
+        @Override
+        public boolean allocates() {
+          return method.allocates();
+        }
+
+        @Override
+        public LoxObject call() throws InterpreterException {
+          return method.invoke(self, List.of());
+        }
+
+        @Override
+        public LoxObject call(LoxObject a) throws InterpreterException {
+          return method.invoke(self, List.of(a));
+        }
+
+        @Override
+        public LoxObject call(LoxObject a, LoxObject b) throws InterpreterException {
+          return method.invoke(self, List.of(a, b));
+        }
+
+        @Override
+        public LoxObject call(LoxObject a, LoxObject b, LoxObject c) throws InterpreterException {
+          return method.invoke(self, List.of(a, b, c));
+        }
+
+        @Override
+        public LoxObject call(LoxObject a, LoxObject b, LoxObject c, LoxObject d) throws InterpreterException {
+          return method.invoke(self, List.of(a, b, c, d));
+        }
+
+        @Override
+        public LoxObject call(List<LoxObject> arguments) throws InterpreterException {
+          return method.invoke(self, arguments);
+        }
+      };
+    }
+  }
+
   public static class LoxUserFunction extends LoxFunction {
-    public Environment enclosingEnv;
-    public FuncStmt node;
+    // Final, so that a function handed to another task is seen fully built
+    public final Environment enclosingEnv;
+    public final FuncStmt node;
 
     public LoxUserFunction(FuncStmt node, Environment env) {
       this.node = node;
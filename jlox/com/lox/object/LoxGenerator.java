@@ -0,0 +1,287 @@
+package com.lox.object;
+
+import java.lang.ref.Cleaner;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.lox.EventLoop;
+import com.lox.Interpreter;
+import com.lox.InterpreterException;
+import com.lox.Scheduler;
+
+// A coroutine producing values on demand. `Generator(f)` calls `f(yield)` on
+// the first request for a value, and `yield(v)` suspends `f` until the next
+// request, which gets `v`. `next()` returns the next value, or nil once `f`
+// has returned, and `hasNext()` tells them apart. So a consumer pulls values
+// one at a time, and at most one value is ever held.
+//
+// `f` runs with its own interpreter on a virtual thread, whose frames are kept
+// off the carrier's stack while it is suspended. The interpreter has the
+// limits of the one that started `f` (see Interpreter.fork). The generator and its
+// consumer hand control to each other through synchronous queues, so only one
+// of them runs at any time, and each sees everything the other did. A
+// generator that is closed, or that becomes unreachable, stops its suspended
+// function by making `yield` unwind it.
+public final class LoxGenerator extends LoxObject {
+  public static final LoxClass OBJECT = LoxClass.builtin("Generator", LoxObject.OBJECT, List.of(
+      new LoxFunction.LoxForeignMethod("hasNext") {
+        @Override
+        public int arity() {
+          return 0;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxGenerator) self).hasNext() ? LoxBoolean.TRUE : LoxBoolean.FALSE;
+        }
+      },
+      new LoxFunction.LoxForeignMethod("next") {
+        @Override
+        public int arity() {
+          return 0;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxGenerator) self).next();
+        }
+      },
+      new LoxFunction.LoxForeignMethod("close") {
+        @Override
+        public int arity() {
+          return 0;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          ((LoxGenerator) self).close();
+          return LoxNil.NIL;
+        }
+      }));
+
+  private static final Cleaner cleaner = Cleaner.create();
+  // The handoff of the generator whose function runs on this thread
+  private static final ThreadLocal<Handoff> current = new ThreadLocal<>();
+
+  private static final Object RESUME = new Object();
+  private static final Object STOP = new Object();
+
+  private sealed interface Result {
+  }
+
+  private record Yielded(LoxObject value) implements Result {
+  }
+
+  private record Returned() implements Result {
+  }
+
+  private record Failed(String message) implements Result {
+  }
+
+  private record Crashed(Throwable cause) implements Result {
+  }
+
+  // Raised by `yield` to unwind a function whose generator was stopped
+  private static class Stop extends RuntimeException {
+    Stop() {
+      super(null, null, false, false);
+    }
+  }
+
+  // Everything the generated function uses, without the generator itself, so
+  // that an abandoned generator can be collected and its function stopped
+  private static class Handoff implements Runnable {
+    final SynchronousQueue<Object> requests = new SynchronousQueue<>();
+    final SynchronousQueue<Result> results = new SynchronousQueue<>();
+    volatile Thread producer = null;
+    // The generator that the function is waiting for, if any
+    volatile Handoff resuming = null;
+
+    // Run by the cleaner. The function is suspended if it started at all, as
+    // it only runs while the generator waits for it.
+    @Override
+    public void run() {
+      this.requests.offer(STOP);
+    }
+  }
+
+  private final LoxFunction function;
+  private final Handoff handoff = new Handoff();
+  // Not a monitor: a virtual thread blocked in one can't leave its carrier
+  private final ReentrantLock lock = new ReentrantLock();
+  private boolean isStarted = false;
+  private boolean isDone = false;
+  private boolean hasLookahead = false;
+  private LoxObject lookahead = null;
+
+  public LoxGenerator(LoxFunction function) {
+    super();
+    this.function = function;
+    LoxGenerator.cleaner.register(this, this.handoff);
+  }
+
+  public boolean hasNext() throws InterpreterException {
+    this.lock();
+    try {
+      this.advance();
+      return this.hasLookahead;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public LoxObject next() throws InterpreterException {
+    this.lock();
+    try {
+      this.advance();
+      if (!this.hasLookahead) {
+        return LoxNil.NIL;
+      }
+      final LoxObject value = this.lookahead;
+      this.hasLookahead = false;
+      this.lookahead = null;
+      return value;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public void close() throws InterpreterException {
+    this.lock();
+    try {
+      if (this.isStarted && !this.isDone) {
+        LoxGenerator.put(this.handoff.requests, STOP);
+      }
+      this.isDone = true;
+      this.hasLookahead = false;
+      this.lookahead = null;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  // A generator that is running waits for the function of the generator it
+  // resumes, and so on. Resuming one of them from the end of that chain would
+  // wait forever.
+  private void lock() throws InterpreterException {
+    for (Handoff h = this.handoff; h != null; h = h.resuming) {
+      if (h.producer == Thread.currentThread()) {
+        throw new InterpreterException("A generator can't resume itself");
+      }
+    }
+    this.lock.lock();
+  }
+
+  private void advance() throws InterpreterException {
+    if (this.hasLookahead || this.isDone) {
+      return;
+    }
+    if (!this.isStarted) {
+      this.isStarted = true;
+      LoxGenerator.start(this.function, this.handoff);
+    }
+    final Handoff caller = LoxGenerator.current.get();
+    final Result result;
+    if (caller != null) {
+      caller.resuming = this.handoff;
+    }
+    try {
+      LoxGenerator.put(this.handoff.requests, RESUME);
+      result = LoxGenerator.take(this.handoff.results);
+    } finally {
+      if (caller != null) {
+        caller.resuming = null;
+      }
+    }
+    switch (result) {
+      case Yielded y -> {
+        this.hasLookahead = true;
+        this.lookahead = y.value;
+      }
+      case Returned r -> this.isDone = true;
+      case Failed f -> {
+        this.isDone = true;
+        throw new InterpreterException(f.message);
+      }
+      case Crashed c -> {
+        this.isDone = true;
+        throw new Error("Generator failed", c.cause);
+      }
+    }
+  }
+
+  // Static, so that the producer doesn't keep the generator reachable
+  private static void start(LoxFunction function, Handoff handoff) {
+    final LoxFunction yield = new LoxFunction.LoxForeignFunction("yield") {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public LoxObject call(LoxObject value) throws InterpreterException {
+        if (Thread.currentThread() != handoff.producer) {
+          throw new InterpreterException("Can only yield from the function of the generator");
+        }
+        LoxGenerator.put(handoff.results, new Yielded(value));
+        if (LoxGenerator.take(handoff.requests) == STOP) {
+          throw new Stop();
+        }
+        return LoxNil.NIL;
+      }
+    };
+    final Interpreter interpreter = Interpreter.fork();
+    handoff.producer = Thread.ofVirtual().name("lox-generator").unstarted(() -> {
+      Result result;
+      try {
+        if (LoxGenerator.take(handoff.requests) == STOP) {
+          return;
+        }
+        LoxGenerator.current.set(handoff);
+        interpreter.run(() -> EventLoop.run(interpreter, () -> interpreter.call(function, List.of(yield))));
+        result = new Returned();
+      } catch (Stop e) {
+        return;
+      } catch (InterpreterException e) {
+        result = new Failed(e.message);
+      } catch (Throwable e) {
+        result = new Crashed(e);
+      }
+      try {
+        LoxGenerator.put(handoff.results, result);
+      } catch (InterpreterException e) {
+        // Interrupted: nobody is left to tell
+      }
+    });
+    handoff.producer.start();
+  }
+
+  private static <T> void put(SynchronousQueue<T> queue, T value) throws InterpreterException {
+    try (Scheduler.Blocking blocking = Scheduler.blocking()) {
+      queue.put(value);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterpreterException("Interrupted while waiting for a generator");
+    }
+  }
+
+  private static <T> T take(SynchronousQueue<T> queue) throws InterpreterException {
+    try (Scheduler.Blocking blocking = Scheduler.blocking()) {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterpreterException("Interrupted while waiting for a generator");
+    }
+  }
+
+  @Override
+  public LoxClass cls() {
+    return LoxGenerator.OBJECT;
+  }
+
+  @Override
+  public String toString() {
+    return "<generator>";
+  }
+}
@@ -0,0 +1,119 @@
+package com.lox.object;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lox.InterpreterException;
+
+// A growable list of values. Lists may be shared by tasks (see LoxTask), so
+// every operation locks the list: concurrent pushes never get lost.
+public class LoxList extends LoxObject {
+  public static final LoxClass OBJECT = LoxClass.builtin("List", LoxObject.OBJECT, List.of(
+      new LoxFunction.LoxForeignMethod("push") {
+        @Override
+        public int arity() {
+          return 1;
+        }
+
+        @Override
+        public boolean allocates() {
+          return true;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) {
+          ((LoxList) self).push(arguments.get(0));
+          return LoxNil.NIL;
+        }
+      },
+      new LoxFunction.LoxForeignMethod("get") {
+        @Override
+        public int arity() {
+          return 1;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxList) self).get(arguments.get(0));
+        }
+      },
+      new LoxFunction.LoxForeignMethod("set") {
+        @Override
+        public int arity() {
+          return 2;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          ((LoxList) self).set(arguments.get(0), arguments.get(1));
+          return LoxNil.NIL;
+        }
+      },
+      new LoxFunction.LoxForeignMethod("length") {
+        @Override
+        public int arity() {
+          return 0;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) {
+          return new LoxNumber(((LoxList) self).length());
+        }
+      }));
+
+  private final List<LoxObject> values;
+
+  public LoxList() {
+    this(new ArrayList<>());
+  }
+
+  public LoxList(List<LoxObject> values) {
+    super();
+    this.values = values;
+  }
+
+  public synchronized void push(LoxObject value) {
+    this.values.add(value);
+  }
+
+  public synchronized LoxObject get(LoxObject index) throws InterpreterException {
+    return this.values.get(this.indexOf(index));
+  }
+
+  public synchronized void set(LoxObject index, LoxObject value) throws InterpreterException {
+    this.values.set(this.indexOf(index), value);
+  }
+
+  public synchronized int length() {
+    return this.values.size();
+  }
+
+  // Copy of the values, for work that must not hold the lock
+  public synchronized LoxObject[] snapshot() {
+    return this.values.toArray(new LoxObject[0]);
+  }
+
+  private int indexOf(LoxObject index) throws InterpreterException {
+    if (!(index instanceof LoxNumber n) || n.value != Math.floor(n.value)) {
+      throw new InterpreterException("List index must be an integer");
+    }
+    if (n.value < 0 || n.value >= this.values.size()) {
+      throw new InterpreterException(String.format("List index %s out of range", n.value));
+    }
+    return (int) n.value;
+  }
+
+  @Override
+  public LoxClass cls() {
+    return LoxList.OBJECT;
+  }
+
+  @Override
+  public synchronized String toString() {
+    final List<String> values = new ArrayList<>();
+    for (LoxObject value : this.values) {
+      values.add(value.toString());
+    }
+    return "[" + String.join(", ", values) + "]";
+  }
+}
@@ -1,11 +1,9 @@
 package com.lox.object;
 
-import java.util.ArrayList;
-
 import com.lox.InterpreterException;
 
 public class LoxNil extends LoxObject {
-  public final static LoxClass OBJECT = new LoxClass("Nil", LoxObject.OBJECT, new ArrayList<>());
+  public final static LoxClass OBJECT = LoxClass.builtin("Nil", LoxObject.OBJECT);
   public final static LoxNil NIL = new LoxNil();
 
   private LoxNil() {
@@ -1,11 +1,9 @@
 package com.lox.object;
 
-import java.util.ArrayList;
-
 import com.lox.InterpreterException;
 
 public class LoxNumber extends LoxObject {
-  public static final LoxClass OBJECT = new LoxClass("Number", LoxObject.OBJECT, new ArrayList<>());
+  public static final LoxClass OBJECT = LoxClass.builtin("Number", LoxObject.OBJECT);
 
   public final double value;
 
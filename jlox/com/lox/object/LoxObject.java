@@ -1,20 +1,32 @@
 package com.lox.object;
 
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.lox.InterpreterException;
 import com.lox.SpecialSymbols;
 import com.lox.utils.Pair;
 
 public abstract class LoxObject {
-  public static final LoxClass OBJECT = new LoxClass("Object", new ArrayList<>());
+  public static final LoxClass OBJECT = LoxClass.builtin("Object", null);
 
-  private Map<String, LoxObject> fields;
+  // Allocated on the first `set`, most objects (numbers, strings, ...) never have fields.
+  // Concurrent, as objects may be shared by tasks running in parallel (see LoxTask).
+  private volatile Map<String, LoxObject> fields;
+  private static final VarHandle FIELDS;
+
+  static {
+    try {
+      FIELDS = MethodHandles.lookup().findVarHandle(LoxObject.class, "fields", Map.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
 
   public LoxObject() {
-    this.fields = new HashMap<>();
   }
 
   public abstract LoxClass cls();
@@ -26,24 +38,46 @@ public abstract class LoxObject {
   }
 
   public LoxObject get(String prop) throws InterpreterException {
-    if (this.fields.containsKey(prop)) {
-      return this.fields.get(prop);
+    final LoxObject field = this.getField(prop);
+    if (field != null) {
+      return field;
     }
     return this.getMethod(prop);
   }
 
+  // The field named `prop`, or null if there is none
+  public LoxObject getField(String prop) {
+    final Map<String, LoxObject> fields = this.fields;
+    return fields == null ? null : fields.get(prop);
+  }
+
+  public boolean hasFields() {
+    final Map<String, LoxObject> fields = this.fields;
+    return fields != null && !fields.isEmpty();
+  }
+
   public void set(String prop, LoxObject value) throws InterpreterException {
-    this.fields.put(prop, value);
+    Map<String, LoxObject> fields = this.fields;
+    if (fields == null) {
+      // Tasks setting the first field at once must agree on the map
+      FIELDS.compareAndSet(this, null, new ConcurrentHashMap<String, LoxObject>());
+      fields = this.fields;
+    }
+    fields.put(prop, value);
   }
 
   public LoxObject getMethod(String prop) throws InterpreterException {
-    final LoxObject res = this.cls().lookupMethod(prop);
-    if (res == LoxNil.NIL) {
-      return res;
+    return this.bindMethod(this.cls().lookupMethod(prop));
+  }
+
+  // Bind `this` in `method`, the result of a method lookup on this object's class
+  public LoxObject bindMethod(LoxObject method) {
+    if (method == LoxNil.NIL) {
+      return method;
     }
     final Map<String, LoxObject> symbols = new HashMap<>();
     symbols.put(SpecialSymbols.THIS_OBJECT, this);
-    return ((LoxFunction) res).concatEnv(symbols);
+    return ((LoxFunction) method).concatEnv(symbols);
   }
 
   public LoxObject getMethod(String prop, LoxClass startCls) throws InterpreterException {
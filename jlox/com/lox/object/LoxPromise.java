@@ -0,0 +1,200 @@
+package com.lox.object;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lox.EventLoop;
+import com.lox.InterpreterException;
+
+// The eventual result of an asynchronous operation. It is settled once, with
+// a value or with an error message, and only from the thread of its event
+// loop, so it needs no synchronization. Other tasks can't use it, even if it
+// is passed to them.
+//
+// `then(f)` and `catch(f)` return a promise of what `f` returns, called with
+// the value or the error message. A callback that returns a promise passes on
+// its result instead. A callback that fails rejects the returned promise.
+// Callbacks always run from the loop, never from `then` or `catch` directly.
+// `await()` runs the loop until the promise settles, then returns its value
+// or raises its error.
+public class LoxPromise extends LoxObject {
+  public static final LoxClass OBJECT = LoxClass.builtin("Promise", LoxObject.OBJECT, List.of(
+      new LoxFunction.LoxForeignMethod("then") {
+        @Override
+        public int arity() {
+          return 1;
+        }
+
+        @Override
+        public boolean allocates() {
+          return true;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxPromise) self).react(LoxPromise.expectCallback(arguments.get(0)), null);
+        }
+      },
+      new LoxFunction.LoxForeignMethod("catch") {
+        @Override
+        public int arity() {
+          return 1;
+        }
+
+        @Override
+        public boolean allocates() {
+          return true;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxPromise) self).react(null, LoxPromise.expectCallback(arguments.get(0)));
+        }
+      },
+      new LoxFunction.LoxForeignMethod("await") {
+        @Override
+        public int arity() {
+          return 0;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxPromise) self).await();
+        }
+      }));
+
+  private static final String FOREIGN_PROMISE = "Can only use a promise in the task that created it";
+
+  private record Reaction(LoxFunction onValue, LoxFunction onError, LoxPromise target) {
+  }
+
+  private final EventLoop loop;
+  private boolean isSettled = false;
+  private LoxObject value = null;
+  private String error = null;
+  private final List<Reaction> reactions = new ArrayList<>();
+
+  public LoxPromise(EventLoop loop) {
+    super();
+    this.loop = loop;
+  }
+
+  private static LoxFunction expectCallback(LoxObject value) throws InterpreterException {
+    if (!(value instanceof LoxFunction fn) || fn.arity() != 1) {
+      throw new InterpreterException("Expected a function of 1 argument(s)");
+    }
+    return fn;
+  }
+
+  public String error() {
+    return this.error;
+  }
+
+  public void resolve(LoxObject value) {
+    if (this.isSettled) {
+      return;
+    }
+    if (value instanceof LoxPromise inner) {
+      // Its reactions would run on the loop of another task
+      if (!inner.loop.isCurrent()) {
+        this.reject(FOREIGN_PROMISE);
+        return;
+      }
+      inner.loop.handled(inner);
+      inner.reactions.add(new Reaction(null, null, this));
+      if (inner.isSettled) {
+        inner.schedule();
+      }
+      return;
+    }
+    this.isSettled = true;
+    this.value = value;
+    this.schedule();
+  }
+
+  public void reject(String error) {
+    if (this.isSettled) {
+      return;
+    }
+    this.isSettled = true;
+    this.error = error;
+    if (this.reactions.isEmpty()) {
+      this.loop.rejected(this);
+    }
+    this.schedule();
+  }
+
+  private void checkThread() throws InterpreterException {
+    if (!this.loop.isCurrent()) {
+      throw new InterpreterException(FOREIGN_PROMISE);
+    }
+  }
+
+  private LoxPromise react(LoxFunction onValue, LoxFunction onError) throws InterpreterException {
+    this.checkThread();
+    final LoxPromise target = new LoxPromise(this.loop);
+    this.loop.handled(this);
+    this.reactions.add(new Reaction(onValue, onError, target));
+    if (this.isSettled) {
+      this.schedule();
+    }
+    return target;
+  }
+
+  // Hand the reactions registered so far over to the loop
+  private void schedule() {
+    if (!this.isSettled || this.reactions.isEmpty()) {
+      return;
+    }
+    final List<Reaction> reactions = List.copyOf(this.reactions);
+    this.reactions.clear();
+    this.loop.post(() -> {
+      for (Reaction reaction : reactions) {
+        this.run(reaction);
+      }
+    });
+  }
+
+  private void run(Reaction reaction) {
+    final LoxFunction callback = this.error == null ? reaction.onValue : reaction.onError;
+    if (callback == null) {
+      if (this.error == null) {
+        reaction.target.resolve(this.value);
+      } else {
+        reaction.target.reject(this.error);
+      }
+      return;
+    }
+    final LoxObject argument = this.error == null ? this.value : LoxString.of(this.error);
+    try {
+      reaction.target.resolve(this.loop.interpreter.call(callback, List.of(argument)));
+    } catch (InterpreterException e) {
+      reaction.target.reject(e.message);
+    }
+  }
+
+  public LoxObject await() throws InterpreterException {
+    this.checkThread();
+    this.loop.handled(this);
+    while (!this.isSettled) {
+      if (!this.loop.runOnce()) {
+        throw new InterpreterException("Awaited a promise that can never settle");
+      }
+    }
+    this.loop.handled(this);
+    if (this.error != null) {
+      throw new InterpreterException(this.error);
+    }
+    return this.value;
+  }
+
+  @Override
+  public LoxClass cls() {
+    return LoxPromise.OBJECT;
+  }
+
+  @Override
+  public String toString() {
+    return "<promise>";
+  }
+}
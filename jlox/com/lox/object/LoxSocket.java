@@ -0,0 +1,175 @@
+package com.lox.object;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.WritePendingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.lox.AsyncIO;
+import com.lox.EventLoop;
+import com.lox.InterpreterException;
+
+// A TCP connection, made by the `connect` native. `read()` gives a promise of
+// the next chunk of text received, or of nil once the peer has closed the
+// connection, and `write(text)` a promise that is fulfilled once all of `text`
+// is sent. There can be one read and one write in progress at a time, and
+// only the task that connected can read or write. Text is UTF-8, and a
+// character split across chunks is only decoded with the chunk that
+// completes it.
+public class LoxSocket extends LoxObject {
+  public static final LoxClass OBJECT = LoxClass.builtin("Socket", LoxObject.OBJECT, List.of(
+      new LoxFunction.LoxForeignMethod("read") {
+        @Override
+        public int arity() {
+          return 0;
+        }
+
+        @Override
+        public boolean allocates() {
+          return true;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxSocket) self).read();
+        }
+      },
+      new LoxFunction.LoxForeignMethod("write") {
+        @Override
+        public int arity() {
+          return 1;
+        }
+
+        @Override
+        public boolean allocates() {
+          return true;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          if (!(arguments.get(0) instanceof LoxString text)) {
+            throw new InterpreterException("Can only write strings to a socket");
+          }
+          return ((LoxSocket) self).write(text.value);
+        }
+      },
+      new LoxFunction.LoxForeignMethod("close") {
+        @Override
+        public int arity() {
+          return 0;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) {
+          AsyncIO.close(((LoxSocket) self).channel);
+          return LoxNil.NIL;
+        }
+      }));
+
+  private static final int CHUNK_SIZE = 8192;
+
+  // The loop of the task that connected, the only one that can use the socket
+  private final EventLoop loop;
+  private final AsynchronousSocketChannel channel;
+  // Only used from the loop
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+  private final ByteBuffer input = ByteBuffer.allocate(CHUNK_SIZE);
+
+  public LoxSocket(EventLoop loop, AsynchronousSocketChannel channel) {
+    super();
+    this.loop = loop;
+    this.channel = channel;
+  }
+
+  private void checkThread() throws InterpreterException {
+    if (!this.loop.isCurrent()) {
+      throw new InterpreterException("Can only use a socket in the task that connected it");
+    }
+  }
+
+  public LoxPromise read() throws InterpreterException {
+    this.checkThread();
+    final EventLoop loop = this.loop;
+    final LoxPromise promise = new LoxPromise(loop);
+    loop.begin();
+    try {
+      this.channel.read(this.input, null, new CompletionHandler<Integer, Void>() {
+        @Override
+        public void completed(Integer count, Void attachment) {
+          loop.complete(() -> promise.resolve(count < 0 ? LoxNil.NIL : LoxSocket.this.decode()));
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+          loop.complete(() -> promise.reject(LoxSocket.failure("read from", e)));
+        }
+      });
+    } catch (ReadPendingException e) {
+      loop.complete(() -> promise.reject("A read is already in progress on this socket"));
+    } catch (RuntimeException e) {
+      loop.complete(() -> promise.reject(LoxSocket.failure("read from", e)));
+    }
+    return promise;
+  }
+
+  private LoxString decode() {
+    final CharBuffer chars = CharBuffer.allocate(this.input.position());
+    this.input.flip();
+    this.decoder.decode(this.input, chars, false);
+    this.input.compact();
+    return LoxString.of(chars.flip().toString());
+  }
+
+  public LoxPromise write(String text) throws InterpreterException {
+    this.checkThread();
+    final EventLoop loop = this.loop;
+    final LoxPromise promise = new LoxPromise(loop);
+    final ByteBuffer output = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    loop.begin();
+    try {
+      this.channel.write(output, null, new CompletionHandler<Integer, Void>() {
+        @Override
+        public void completed(Integer count, Void attachment) {
+          if (output.hasRemaining()) {
+            LoxSocket.this.channel.write(output, null, this);
+            return;
+          }
+          loop.complete(() -> promise.resolve(LoxNil.NIL));
+        }
+
+        @Override
+        public void failed(Throwable e, Void attachment) {
+          loop.complete(() -> promise.reject(LoxSocket.failure("write to", e)));
+        }
+      });
+    } catch (WritePendingException e) {
+      loop.complete(() -> promise.reject("A write is already in progress on this socket"));
+    } catch (RuntimeException e) {
+      loop.complete(() -> promise.reject(LoxSocket.failure("write to", e)));
+    }
+    return promise;
+  }
+
+  private static String failure(String action, Throwable e) {
+    if (e instanceof ClosedChannelException) {
+      return String.format("Failed to %s a closed socket", action);
+    }
+    return String.format("Failed to %s socket (%s)", action, e.getClass().getSimpleName());
+  }
+
+  @Override
+  public LoxClass cls() {
+    return LoxSocket.OBJECT;
+  }
+
+  @Override
+  public String toString() {
+    return "<socket>";
+  }
+}
@@ -1,17 +1,52 @@
 package com.lox.object;
 
-import java.util.ArrayList;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.stream.Stream;
 
 import com.lox.InterpreterException;
 
 public class LoxString extends LoxObject {
-  public static final LoxClass OBJECT = new LoxClass("String", LoxObject.OBJECT, new ArrayList<>());
+  public static final LoxClass OBJECT = LoxClass.builtin("String", LoxObject.OBJECT);
+
+  // Every live LoxString, keyed by its value, so that equal strings are always
+  // the same object. Entries go away once their string is unreachable. The
+  // table is split by hash into stripes with their own lock, so that threads
+  // creating strings rarely wait for each other.
+  private static final int STRIPES = 64;
+  private static final List<Map<String, WeakReference<LoxString>>> internTables = Stream
+      .<Map<String, WeakReference<LoxString>>>generate(WeakHashMap::new)
+      .limit(STRIPES)
+      .toList();
 
   public final String value;
+  private final int hash;
 
-  public LoxString(String value) {
+  private LoxString(String value) {
     super();
     this.value = value;
+    this.hash = value.hashCode();
+  }
+
+  // The only way to create a LoxString: equal strings are interned so that
+  // they can be compared by identity
+  public static LoxString of(String value) {
+    final Map<String, WeakReference<LoxString>> internTable = internTables.get(value.hashCode() & (STRIPES - 1));
+    synchronized (internTable) {
+      final WeakReference<LoxString> ref = internTable.get(value);
+      LoxString str = ref == null ? null : ref.get();
+      if (str == null) {
+        str = new LoxString(value);
+        // The key must be the string's own value, so that the entry lives as
+        // long as the string. put() would keep the key of a stale entry, which
+        // may die first and take the entry with it, so remove that one first.
+        internTable.remove(value);
+        internTable.put(str.value, new WeakReference<>(str));
+      }
+      return str;
+    }
   }
 
   @Override
@@ -24,6 +59,16 @@ public class LoxString extends LoxObject {
     return "\"" + this.value + "\"";
   }
 
+  @Override
+  public boolean equals(Object other) {
+    return this == other;
+  }
+
+  @Override
+  public int hashCode() {
+    return this.hash;
+  }
+
   @Override
   public void set(String prop, LoxObject value) throws InterpreterException {
     throw new InterpreterException("String is immutable");
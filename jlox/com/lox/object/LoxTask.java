@@ -0,0 +1,77 @@
+package com.lox.object;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.lox.EventLoop;
+import com.lox.Interpreter;
+import com.lox.InterpreterException;
+import com.lox.Scheduler;
+
+// A function running on its own virtual thread, with its own interpreter and
+// event loop, but in the same globals and heap as the task that spawned it.
+// The interpreter has the limits of the spawner's (see Interpreter.fork): its
+// steps and allocations count against the same budget, it is time-sliced on
+// the same carrier, and it is stopped along with the spawner's run.
+// `join` waits for the function to return, and for the callbacks it scheduled
+// to run, and gives back its result, or raises the error it failed with.
+// Errors of tasks that are never joined are lost.
+public class LoxTask extends LoxObject {
+  public static final LoxClass OBJECT = LoxClass.builtin("Task", LoxObject.OBJECT, List.of(
+      new LoxFunction.LoxForeignMethod("join") {
+        @Override
+        public int arity() {
+          return 0;
+        }
+
+        @Override
+        public LoxObject invoke(LoxObject self, List<LoxObject> arguments) throws InterpreterException {
+          return ((LoxTask) self).join();
+        }
+      }));
+
+  private final CompletableFuture<LoxObject> result = new CompletableFuture<>();
+
+  private LoxTask() {
+    super();
+  }
+
+  public static LoxTask spawn(LoxFunction function) {
+    final LoxTask task = new LoxTask();
+    final Interpreter interpreter = Interpreter.fork();
+    Thread.ofVirtual().name("lox-task").start(() -> {
+      try {
+        task.result.complete(
+            interpreter.run(() -> EventLoop.run(interpreter, () -> interpreter.call(function, List.of()))));
+      } catch (Throwable e) {
+        task.result.completeExceptionally(e);
+      }
+    });
+    return task;
+  }
+
+  public LoxObject join() throws InterpreterException {
+    try (Scheduler.Blocking blocking = Scheduler.blocking()) {
+      return this.result.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof InterpreterException cause) {
+        throw new InterpreterException(cause.message);
+      }
+      throw new Error("Task failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterpreterException("Interrupted while joining a task");
+    }
+  }
+
+  @Override
+  public LoxClass cls() {
+    return LoxTask.OBJECT;
+  }
+
+  @Override
+  public String toString() {
+    return "<task>";
+  }
+}
@@ -0,0 +1,15 @@
+package com.lox.utils;
+
+// A fact that cached results depend on. It holds until it is invalidated, and
+// then never holds again: whoever cached something under it has to recompute.
+public class Assumption {
+  private volatile boolean isValid = true;
+
+  public boolean isValid() {
+    return this.isValid;
+  }
+
+  public void invalidate() {
+    this.isValid = false;
+  }
+}
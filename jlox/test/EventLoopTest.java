@@ -0,0 +1,182 @@
+package com.lox;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.lox.object.LoxBoolean;
+import com.lox.object.LoxNumber;
+import com.lox.object.LoxObject;
+import com.lox.object.LoxString;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventLoopTest {
+  @Test
+  public void testTimers() throws Throwable {
+    final Isolate isolate = EventLoopTestUtils.run("""
+        var order = List();
+        fun first() { order.push(1); }
+        fun second() { order.push(2); }
+        fun third() { order.push(3); }
+        setTimeout(third, 40);
+        setTimeout(first, 0);
+        setTimeout(second, 20);
+        order.push(0);
+        """);
+    assertEquals(isolate.globals().get("order").toString(), "[0.0, 1.0, 2.0, 3.0]");
+  }
+
+  @Test
+  public void testPromises() throws Throwable {
+    EventLoopTestUtils.assertRunReturns("""
+        fun one() { return 1; }
+        fun two() { return 2; }
+        fun inc(x) { return x + 1; }
+        fun later(x) { return setTimeout(two, 10).then(inc); }
+        setTimeout(one, 0).then(inc).await() + setTimeout(one, 0).then(later).await();
+        """, 5.0);
+    EventLoopTestUtils.assertRunReturns("""
+        fun fail() { return nil + 1; }
+        fun recover(e) { return e; }
+        fun inc(x) { return x + 1; }
+        setTimeout(fail, 0).then(inc).catch(recover).await() == "Unsupported operator '+' on Nil and Number";
+        """, LoxBoolean.TRUE);
+    EventLoopTestUtils.assertErrorMessageIs("""
+        fun fail() { return nil + 1; }
+        setTimeout(fail, 0);
+        """, "Unsupported operator '+' on Nil and Number");
+    EventLoopTestUtils.assertErrorMessageIs("""
+        fun fail() { return nil + 1; }
+        setTimeout(fail, 0).await();
+        """, "Unsupported operator '+' on Nil and Number");
+  }
+
+  @Test
+  public void testFiles() throws Throwable {
+    final Path dir = Files.createTempDirectory("lox");
+    final String path = dir.resolve("file.txt").toString();
+    final Isolate isolate = EventLoopTestUtils.run(String.format("""
+        var text = nil;
+        fun read(x) { return readFile("%s"); }
+        fun keep(t) { text = t; }
+        writeFile("%s", "héllo").then(read).then(keep);
+        """, path, path));
+    assertEquals(isolate.globals().get("text"), LoxString.of("héllo"));
+    assertEquals(Files.readString(Path.of(path)), "héllo");
+    EventLoopTestUtils.assertErrorMessageIs(String.format("readFile(\"%s\").await();", dir.resolve("missing.txt")),
+        String.format("Failed to read '%s' (NoSuchFileException)", dir.resolve("missing.txt")));
+  }
+
+  @Test
+  public void testSockets() throws Throwable {
+    try (ServerSocket server = new ServerSocket(0)) {
+      final Thread echo = Thread.ofVirtual().start(() -> {
+        try {
+          while (true) {
+            final Socket client = server.accept();
+            Thread.ofVirtual().start(() -> {
+              try (client; InputStream in = client.getInputStream(); OutputStream out = client.getOutputStream()) {
+                in.transferTo(out);
+              } catch (Exception e) {
+              }
+            });
+          }
+        } catch (Exception e) {
+        }
+      });
+      // Both connections are in flight at once on the same thread
+      final Isolate isolate = EventLoopTestUtils.run(String.format("""
+          var replies = List();
+          fun keep(text) { replies.push(text); }
+          fun talk(socket) {
+            socket.write("ping");
+            fun done(text) { socket.close(); return text; }
+            return socket.read().then(done);
+          }
+          connect("127.0.0.1", %s).then(talk).then(keep);
+          connect("127.0.0.1", %s).then(talk).then(keep);
+          """, server.getLocalPort(), server.getLocalPort()));
+      assertEquals(isolate.globals().get("replies").toString(), "[\"ping\", \"ping\"]");
+      EventLoopTestUtils.assertErrorMessageIs(String.format("""
+          var socket = connect("127.0.0.1", %s).await();
+          fun work() { return socket.read(); }
+          spawn(work).join();
+          """, server.getLocalPort()), "Can only use a socket in the task that connected it");
+      server.close();
+      echo.join();
+    }
+    EventLoopTestUtils.assertErrorMessageIs("connect(\"127.0.0.1\", 1).await();", "Failed to connect to '127.0.0.1:1' (ConnectException)");
+  }
+
+  @Test
+  public void testEventLoops() throws Throwable {
+    // Tasks have loops of their own, parallel callbacks have none
+    EventLoopTestUtils.assertRunReturns("""
+        fun one() { return 1; }
+        fun work() { return setTimeout(one, 10).await(); }
+        spawn(work).join();
+        """, 1.0);
+    EventLoopTestUtils.assertErrorMessageIs("""
+        fun one() { return 1; }
+        fun f(x) { return setTimeout(one, 0); }
+        var l = List();
+        l.push(1);
+        parallelMap(l, f);
+        """, "'setTimeout' needs an event loop, which this thread doesn't have");
+    // Promises belong to the loop that made them
+    EventLoopTestUtils.assertErrorMessageIs("""
+        fun one() { return 1; }
+        var p = setTimeout(one, 10);
+        fun work() { return p.await(); }
+        spawn(work).join();
+        """, "Can only use a promise in the task that created it");
+    EventLoopTestUtils.assertErrorMessageIs("""
+        fun one() { return 1; }
+        fun inc(x) { return x + 1; }
+        var p = setTimeout(one, 10);
+        fun work() { return p.then(inc); }
+        spawn(work).join();
+        """, "Can only use a promise in the task that created it");
+    EventLoopTestUtils.assertErrorMessageIs("""
+        fun one() { return 1; }
+        var p = setTimeout(one, 10);
+        fun f(yield) { yield(p.await()); }
+        Generator(f).next();
+        """, "Can only use a promise in the task that created it");
+    EventLoopTestUtils.assertErrorMessageIs("""
+        fun one() { return 1; }
+        fun make() { return setTimeout(one, 10); }
+        var foreign = spawn(make).join();
+        fun adopt(x) { return foreign; }
+        setTimeout(one, 0).then(adopt).await();
+        """, "Can only use a promise in the task that created it");
+  }
+}
+
+class EventLoopTestUtils {
+  static Isolate run(String source) throws Throwable {
+    final Isolate isolate = new Isolate();
+    isolate.run(Program.compile(new SourceFile("<test>", source)));
+    return isolate;
+  }
+
+  static void assertRunReturns(String source, double target) throws Throwable {
+    assertEquals(((LoxNumber) new Isolate().run(Program.compile(new SourceFile("<test>", source)))).value, target);
+  }
+
+  static void assertRunReturns(String source, LoxObject target) throws Throwable {
+    assertEquals(new Isolate().run(Program.compile(new SourceFile("<test>", source))), target);
+  }
+
+  static void assertErrorMessageIs(String source, String target) throws Throwable {
+    final Program program = Program.compile(new SourceFile("<test>", source));
+    final InterpreterException e = assertThrows(InterpreterException.class, () -> new Isolate().run(program));
+    assertEquals(e.message, target);
+  }
+}
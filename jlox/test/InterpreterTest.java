@@ -2,6 +2,7 @@ package com.lox;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -90,6 +91,16 @@ public class InterpreterTest {
     InterpreterTestUtils.assertLastStmtEquals("2 / 1 != 1;", true);
   }
 
+  @Test
+  public void testStringEquality() throws Throwable {
+    InterpreterTestUtils.assertLastStmtEquals("\"abc\" == \"abc\";", true);
+    InterpreterTestUtils.assertLastStmtEquals("\"abc\" != \"abd\";", true);
+    InterpreterTestUtils.assertLastStmtEquals("var a = \"x\"; var b = \"x\"; a == b;", true);
+    InterpreterTestUtils.assertLastStmtEquals("var a = \"x\"; var b = \"y\"; a == b;", false);
+    InterpreterTestUtils.assertLastStmtEquals("toString(1) == \"1.0\";", true);
+    InterpreterTestUtils.assertLastStmtEquals("toString(true) == toString(true);", true);
+  }
+
   @Test
   public void testLogical() throws Throwable {
     InterpreterTestUtils.assertLastStmtEquals("true and 3;", 3.0);
@@ -342,6 +353,214 @@ public class InterpreterTest {
   public void testSpecialSymbols() throws Throwable {
     InterpreterTestUtils.assertStdoutIs("class C { fun p() { return __CLASS__; } } var c = C(); print c.p();", "<class C>\n");
   }
+
+  @Test
+  public void testClosures() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("fun counter() { var i = 0; fun inc() { i = i + 1; return i; } return inc; } var c = counter(); c(); c(); print c();", "3.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun pair() { var v = 1; fun get() { return v; } fun set(x) { v = x; } set(5); return get; } print pair()();", "5.0\n");
+    InterpreterTestUtils.assertStdoutIs("{ fun f() { return g(); } fun g() { return 2; } print f(); }", "2.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun outer() { var a = 1; fun mid() { fun inner() { return a; } return inner; } a = 7; return mid(); } print outer()();", "7.0\n");
+    InterpreterTestUtils.assertStdoutIs("class C { fun m() { fun f() { return this.x; } return f; } } var c = C(); c.x = 4; print c.m()();", "4.0\n");
+    InterpreterTestUtils.assertErrorMessageIs("{ fun f() { return a; } f(); var a = 1; }", "Variable 'a' used before defined");
+  }
+
+  @Test
+  public void testPooledFrames() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("fun fact(n) { if (n < 2) return 1; return n * fact(n - 1); } print fact(10);", "3628800.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun add(a, b) { var c = a + b; return c; } print add(add(1, 2), add(3, add(4, 5)));", "15.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun id(x) { return x; } fun mk(v) { fun get() { return id(v); } return get; } var g = mk(1); var h = mk(2); print g() + h();", "3.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun f(n) { while (n > 0) { var m = n; n = n - 1; } return n; } print f(3);", "0.0\n");
+  }
+
+  @Test
+  public void testTailCalls() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("fun loop(n, acc) { if (n == 0) return acc; return loop(n - 1, acc + 1); } print loop(100000, 0);", "100000.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun even(n) { if (n == 0) return true; return odd(n - 1); } fun odd(n) { if (n == 0) return false; return even(n - 1); } print even(100001);", "false\n");
+    InterpreterTestUtils.assertStdoutIs("class C { fun count(n) { if (n == 0) return this; return this.count(n - 1); } } print C().count(100000);", "<instance C>\n");
+    InterpreterTestUtils.assertStdoutIs("fun f(x) { return toString(x); } print f(1);", "\"1.0\"\n");
+    InterpreterTestUtils.assertErrorMessageIs("fun f(a) { return a; } fun g() { return f(); } g();", "Expected 1 argument(s) but got 0");
+    InterpreterTestUtils.assertErrorMessageIs("fun f() { return 1; } return f();", "Cannot `return` outside a function body");
+  }
+
+  @Test
+  public void testDeepRecursion() throws Throwable {
+    InterpreterTestUtils.assertErrorMessageIs("fun f(n) { return 1 + f(n + 1); } f(0);", "Stack overflow");
+    InterpreterTestUtils.assertErrorMessageIs(new Interpreter(100), "fun f(n) { if (n == 0) return 0; return 1 + f(n - 1); } f(100);", "Maximum call depth of 100 exceeded");
+    InterpreterTestUtils.assertLastStmtEquals(new Interpreter(100), "fun f(n) { if (n == 0) return 0; return 1 + f(n - 1); } f(99);", 99.0);
+    InterpreterTestUtils.assertLastStmtEquals(new Interpreter(100), "fun f(n) { if (n == 0) return 0; return f(n - 1); } f(1000);", 0.0);
+  }
+
+  @Test
+  public void testCallArguments() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("fun f(a, b, c, d, e) { return a - b + c - d + e; } print f(1, 2, 3, 4, 5);", "3.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun f(a) { print a; return a; } fun g(a, b) { return a + b; } print g(f(1), f(2));", "1.0\n2.0\n3.0\n");
+    InterpreterTestUtils.assertStdoutIs("print clock() > 0;", "true\n");
+    InterpreterTestUtils.assertErrorMessageIs("fun f(a, b) { return a; } f(1);", "Expected 2 argument(s) but got 1");
+    InterpreterTestUtils.assertErrorMessageIs("fun f() { return 1; } f(1, g);", "Undefined variable 'g'");
+    InterpreterTestUtils.assertErrorMessageIs("clock(1);", "Expected 0 argument(s) but got 1");
+    InterpreterTestUtils.assertErrorMessageIs("toString(1, 2);", "Expected 1 argument(s) but got 2");
+  }
+
+  @Test
+  public void testMethodCache() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("class A { fun m() { return 1; } } class B < A {} fun call(o) { return o.m(); } var s = 0; for (var i = 0; i < 20; i = i + 1) s = s + call(B()); class C < B { fun m() { return 10; } } print s + call(C()) + call(B()) + call(A());", "32.0\n");
+    InterpreterTestUtils.assertStdoutIs("class A { fun m() { return 1; } } class B < A { fun m() { return 2; } } fun call(o) { return o.m(); } print call(A()) + call(B()) + call(A());", "4.0\n");
+    InterpreterTestUtils.assertStdoutIs("class A { fun m() { return 1; } } fun f() { return 5; } fun call(o) { return o.m(); } var a = A(); var s = call(a); a.m = f; print s + call(a);", "6.0\n");
+    InterpreterTestUtils.assertStdoutIs("class A { fun m() { return 1; } } class B < A { fun m() { return super.m() + 1; } } class C < B {} fun call(o) { return o.m(); } print call(C()) + call(C());", "4.0\n");
+    InterpreterTestUtils.assertStdoutIs("class A {} fun get(o) { return o.m; } print get(A()); class B < A { fun m() {} } print get(B());", "nil\n<function m>\n");
+    InterpreterTestUtils.assertStdoutIs("class A { fun m() { return 1; } } class B < A { fun m() { return 2; } } class C < A {} class D < C {} fun call(o) { return o.m(); } print call(A()) + call(A()); print call(D()) + call(C()) + call(B());", "2.0\n4.0\n");
+    // Sites that saw builtin receivers only match that very class
+    InterpreterTestUtils.assertStdoutIs("class L { fun length() { return 7; } } fun len(o) { return o.length(); } var l = List(); l.push(1); print len(l) + len(L()) + len(l);", "9.0\n");
+  }
+
+  @Test
+  public void testInlining() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("fun sq(x) { return x * x; } var s = 0; for (var i = 0; i < 40; i = i + 1) s = s + sq(i); print s;", "20540.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun sq(x) { return x * x; } fun cube(x) { return x * x * x; } var f = sq; var s = 0; for (var i = 0; i < 40; i = i + 1) { if (i == 20) f = cube; s = s + f(2); } print s;", "240.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun mk(k) { fun add(x) { return x + k; } return add; } var a = mk(1); var b = mk(100); var g = a; var s = 0; for (var i = 0; i < 40; i = i + 1) { if (i == 20) g = b; s = s + g(2); } print s;", "2100.0\n");
+    InterpreterTestUtils.assertStdoutIs("class P { fun constructor(x) { this.x = x; } fun getX() { return this.x; } } var s = 0; for (var i = 0; i < 40; i = i + 1) s = s + P(i).getX(); print s;", "780.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun pick(a, b) { return a and b or -1; } var s = 0; for (var i = 0; i < 40; i = i + 1) s = s + pick(i < 20, 2); print s;", "20.0\n");
+    InterpreterTestUtils.assertErrorMessageIs("fun dbl(x) { return x * 2; } for (var i = 0; i < 40; i = i + 1) dbl(i); dbl(nil);", "Unsupported operator '*' on Nil and Number");
+  }
+
+  @Test
+  public void testGlobalCache() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("var k = 1; fun get() { return k; } var s = 0; for (var i = 0; i < 20; i = i + 1) { if (i == 10) k = 2; s = s + get(); } print s;", "30.0\n");
+    InterpreterTestUtils.assertStdoutIs("var k = 1; fun get() { return k; } print get(); k = k + 5; print get();", "1.0\n6.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun f() { return 1; } fun g() { return 2; } fun call() { return f(); } var s = call(); f = g; print s + call();", "3.0\n");
+    InterpreterTestUtils.assertStdoutIs("var x = \"global\"; fun show(x) { return x; } print show(1); print show(2);", "1.0\n2.0\n");
+    InterpreterTestUtils.assertStdoutIs("var n = 0; fun inc() { n = n + 1; } for (var i = 0; i < 5; i = i + 1) inc(); print n;", "5.0\n");
+    InterpreterTestUtils.assertErrorMessageIs("fun get() { return k; } get(); var k = 1;", "Undefined variable 'k'");
+  }
+
+  @Test
+  public void testTasks() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("fun f() { return 42; } var t = spawn(f); print t.join(); print t.join();", "42.0\n42.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } fun mk(n) { fun run() { return fib(n); } return run; } var a = spawn(mk(15)); var b = spawn(mk(16)); print a.join() + b.join();", "1597.0\n");
+    InterpreterTestUtils.assertStdoutIs("class Box {} var box = Box(); fun fill() { box.value = 7; } spawn(fill).join(); print box.value;", "7.0\n");
+    InterpreterTestUtils.assertErrorMessageIs("fun f() { return nil + 1; } spawn(f).join();", "Unsupported operator '+' on Nil and Number");
+    InterpreterTestUtils.assertErrorMessageIs("fun f(x) { return x; } spawn(f);", "Can only spawn a function that takes no argument");
+    InterpreterTestUtils.assertErrorMessageIs("spawn(1);", "Can only spawn a function that takes no argument");
+  }
+
+  @Test
+  public void testChannels() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("var c = Channel(2); c.send(1); c.send(2); print c.receive(); print c.receive();", "1.0\n2.0\n");
+    InterpreterTestUtils.assertStdoutIs("var c = Channel(1); c.send(1); c.close(); print c.receive(); print c.receive(); print c.receive();", "1.0\nnil\nnil\n");
+    InterpreterTestUtils.assertStdoutIs("""
+        var jobs = Channel(4);
+        var results = Channel(4);
+        fun worker() {
+          var job = jobs.receive();
+          while (job != nil) {
+            results.send(job * job);
+            job = jobs.receive();
+          }
+        }
+        var workers = Channel(8);
+        for (var i = 0; i < 8; i = i + 1) workers.send(spawn(worker));
+        workers.close();
+        fun produce() {
+          for (var i = 1; i <= 100; i = i + 1) jobs.send(i);
+          jobs.close();
+        }
+        spawn(produce);
+        var sum = 0;
+        for (var i = 0; i < 100; i = i + 1) sum = sum + results.receive();
+        print sum;
+        var w = workers.receive();
+        while (w != nil) {
+          w.join();
+          w = workers.receive();
+        }
+        print "done";
+        """, "338350.0\n\"done\"\n");
+    InterpreterTestUtils.assertErrorMessageIs("var c = Channel(1); c.close(); c.send(1);", "Send on a closed channel");
+    InterpreterTestUtils.assertErrorMessageIs("var c = Channel(1); c.close(); c.close();", "Channel is already closed");
+    InterpreterTestUtils.assertErrorMessageIs("Channel(0);", "Channel capacity must be a positive integer");
+    InterpreterTestUtils.assertErrorMessageIs("Channel(1.5);", "Channel capacity must be a positive integer");
+  }
+
+  @Test
+  public void testLists() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("var l = List(); l.push(1); l.push(\"a\"); l.set(0, 5); print l.get(0); print l.length(); print l;", "5.0\n2.0\n[5.0, \"a\"]\n");
+    InterpreterTestUtils.assertStdoutIs("var l = List(); var push = l.push; push(1); print l;", "[1.0]\n");
+    InterpreterTestUtils.assertErrorMessageIs("var l = List(); l.get(0);", "List index 0.0 out of range");
+    InterpreterTestUtils.assertErrorMessageIs("var l = List(); l.push(1); l.get(0.5);", "List index must be an integer");
+    InterpreterTestUtils.assertErrorMessageIs("var l = List(); l.push();", "Expected 1 argument(s) but got 0");
+  }
+
+  @Test
+  public void testParallel() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("var l = List(); for (var i = 0; i < 1000; i = i + 1) l.push(i); fun sq(x) { return x * x; } var m = parallelMap(l, sq); print m.length(); print m.get(999); fun add(a, b) { return a + b; } print parallelReduce(m, add, 0);", "1000.0\n998001.0\n3.328335E8\n");
+    InterpreterTestUtils.assertStdoutIs("fun add(a, b) { return a + b; } print parallelReduce(List(), add, 7);", "7.0\n");
+    InterpreterTestUtils.assertStdoutIs("var l = List(); l.push(1); fun sq(x) { return x * x; } var m = parallelMap(l, sq); m.push(3); print m;", "[1.0, 3.0]\n");
+    InterpreterTestUtils.assertStdoutIs("var l = List(); for (var i = 0; i < 100; i = i + 1) l.push(i); fun last(a, b) { return b; } print parallelReduce(l, last, nil);", "99.0\n");
+    InterpreterTestUtils.assertStdoutIs("var l = List(); for (var i = 0; i < 64; i = i + 1) l.push(0); fun put(i) { l.set(i, i * 2); } parallelFor(0, 64, put); print l.get(63); var c = List(); fun add(i) { c.push(i); } parallelFor(0, 500, add); print c.length();", "126.0\n500.0\n");
+    InterpreterTestUtils.assertErrorMessageIs("var l = List(); for (var i = 0; i < 100; i = i + 1) l.push(i); l.set(50, nil); fun inc(x) { return x + 1; } parallelMap(l, inc);", "Unsupported operator '+' on Nil and Number");
+    InterpreterTestUtils.assertErrorMessageIs("fun f(a, b) { return a; } parallelMap(List(), f);", "Expected a function of 1 argument(s)");
+    InterpreterTestUtils.assertErrorMessageIs("fun f(a) { return a; } parallelMap(1, f);", "Expected a list");
+  }
+
+  @Test
+  public void testErrorPositions() throws Throwable {
+    final String add = "var a = 1;\nfun f(x) { return x + nil; }\nprint f(a);";
+    InterpreterTestUtils.assertErrorOffsetIs(add, add.indexOf("+"));
+    final String undefined = "print 1;\nprint (y);";
+    InterpreterTestUtils.assertErrorOffsetIs(undefined, undefined.indexOf("y"));
+    final String call = "class A {} A().m();";
+    InterpreterTestUtils.assertErrorOffsetIs(call, call.indexOf("m"));
+    final String natives = "var l = List(); l.get(3);";
+    InterpreterTestUtils.assertErrorOffsetIs(natives, natives.indexOf("get"));
+  }
+
+  @Test
+  public void testGenerators() throws Throwable {
+    InterpreterTestUtils.assertStdoutIs("fun f(yield) { yield(1); yield(nil); yield(3); } var g = Generator(f); while (g.hasNext()) print g.next(); print g.next(); print g.hasNext();", "1.0\nnil\n3.0\nnil\nfalse\n");
+    InterpreterTestUtils.assertStdoutIs("""
+        fun naturals(yield) {
+          var i = 0;
+          while (true) {
+            yield(i);
+            i = i + 1;
+          }
+        }
+        var numbers = Generator(naturals);
+        fun squares(yield) {
+          while (true) {
+            var n = numbers.next();
+            yield(n * n);
+          }
+        }
+        var g = Generator(squares);
+        var sum = 0;
+        for (var i = 0; i < 1000; i = i + 1) sum = sum + g.next();
+        print sum;
+        print numbers.next();
+        """, "3.328335E8\n1000.0\n");
+    InterpreterTestUtils.assertStdoutIs("var n = 0; fun f(yield) { while (true) { n = n + 1; yield(n); } } var g = Generator(f); print n; g.next(); g.next(); print n; g.close(); print g.next(); print n;", "0.0\n2.0\nnil\n2.0\n");
+    InterpreterTestUtils.assertStdoutIs("fun f(yield) { return 1; } var g = Generator(f); g.close(); print g.hasNext();", "false\n");
+    InterpreterTestUtils.assertErrorMessageIs("fun f(yield) { yield(1); return 1 + nil; } var g = Generator(f); g.next(); g.next();", "Unsupported operator '+' on Number and Nil");
+    InterpreterTestUtils.assertErrorMessageIs("var g; fun f(yield) { g.next(); } g = Generator(f); g.next();", "A generator can't resume itself");
+    InterpreterTestUtils.assertErrorMessageIs("var a; var b; fun f(yield) { yield(b.next()); } fun h(yield) { yield(a.next()); } a = Generator(f); b = Generator(h); a.next();", "A generator can't resume itself");
+    InterpreterTestUtils.assertErrorMessageIs("var y; fun f(yield) { y = yield; yield(1); } var g = Generator(f); g.next(); y(2);", "Can only yield from the function of the generator");
+    InterpreterTestUtils.assertErrorMessageIs("fun f(a, b) {} Generator(f);", "Expected a function of 1 argument(s)");
+  }
+
+  @Test
+  public void testStringInterning() throws Throwable {
+    assertSame(LoxString.of(new String("lox")), LoxString.of(new String("lox")));
+    // A string interned again after the first one died stays interned once
+    // the value of the first one dies too
+    String firstValue = new String("interned");
+    final WeakReference<LoxString> first = new WeakReference<>(LoxString.of(firstValue));
+    InterpreterTestUtils.collect(first);
+    final LoxString second = LoxString.of(new String("interned"));
+    final WeakReference<String> firstValueRef = new WeakReference<>(firstValue);
+    firstValue = null;
+    InterpreterTestUtils.collect(firstValueRef);
+    assertSame(LoxString.of(new String("interned")), second);
+  }
 }
 
 class InterpreterTestUtils {
@@ -362,12 +581,15 @@ class InterpreterTestUtils {
   }
 
   static void assertLastStmtEquals(String source, Object target) throws Throwable {
+    assertLastStmtEquals(new Interpreter(), source, target);
+  }
+
+  static void assertLastStmtEquals(Interpreter interpreter, String source, Object target) throws Throwable {
     Scanner scanner = new Scanner(source);
     List<Token> tokens = scanner.tokenize().first;
     Parser parser = new Parser(tokens);
     List<Stmt> stmts = parser.parse().first; 
 
-    Interpreter interpreter = new Interpreter();
     Environment env = Environment.createGlobals();
     LoxObject res = LoxNil.NIL;
     for (Stmt stmt: stmts) {
@@ -377,12 +599,15 @@ class InterpreterTestUtils {
   }
 
   static void assertErrorMessageIs(String source, String target) throws Throwable {
+    assertErrorMessageIs(new Interpreter(), source, target);
+  }
+
+  static void assertErrorMessageIs(Interpreter interpreter, String source, String target) throws Throwable {
     Scanner scanner = new Scanner(source);
     List<Token> tokens = scanner.tokenize().first;
     Parser parser = new Parser(tokens);
     List<Stmt> stmts = parser.parse().first; 
 
-    Interpreter interpreter = new Interpreter();
     Environment env = Environment.createGlobals();
     LoxObject res = LoxNil.NIL;
     
@@ -397,6 +622,26 @@ class InterpreterTestUtils {
     assertEquals("An exception was caught", "No exception was caught");
   }
 
+  // `target` is the offset at which the error is located
+  static void assertErrorOffsetIs(String source, int target) throws Throwable {
+    Scanner scanner = new Scanner(source);
+    List<Token> tokens = scanner.tokenize().first;
+    Parser parser = new Parser(tokens);
+    List<Stmt> stmts = parser.parse().first;
+
+    Environment env = Environment.createGlobals();
+    final InterpreterException e = assertThrows(InterpreterException.class, () -> new Interpreter().evaluate(stmts, env));
+    assertEquals(e.startOffset(), target);
+  }
+
+  // Wait a while for the referent of `ref` to be garbage collected
+  static void collect(WeakReference<?> ref) throws InterruptedException {
+    for (int i = 0; i < 1000 && ref.get() != null; ++i) {
+      System.gc();
+      Thread.sleep(1);
+    }
+  }
+
   static void assertStdoutIs(String source, String target) throws Throwable {
     Scanner scanner = new Scanner(source);
     List<Token> tokens = scanner.tokenize().first;
@@ -0,0 +1,215 @@
+package com.lox;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.lox.object.LoxNumber;
+import com.lox.object.LoxObject;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IsolateTest {
+  @Test
+  public void testRun() throws Throwable {
+    IsolateTestUtils.assertRunReturns("var a = 1; a + 2;", 3.0);
+    IsolateTestUtils.assertRunReturns("fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } fib(15);", 610.0);
+  }
+
+  @Test
+  public void testCompileErrors() throws Throwable {
+    final Program program = Program.compile(new SourceFile("<test>", "var a = ;"));
+    assertEquals(program.hasErrors(), true);
+    assertEquals(program.parserErrors.size() > 0, true);
+    assertEquals(program.stmts.size(), 0);
+    assertThrows(Error.class, () -> new Isolate().run(program));
+  }
+
+  @Test
+  public void testSeparateGlobals() throws Throwable {
+    final Program program = Program.compile(new SourceFile("<test>", "var n = 0; fun inc() { n = n + 1; return n; } inc(); inc();"));
+    final Isolate first = new Isolate();
+    final Isolate second = new Isolate();
+    assertEquals(IsolateTestUtils.numberOf(first.run(program)), 2.0);
+    assertEquals(IsolateTestUtils.numberOf(second.run(program)), 2.0);
+    assertEquals(IsolateTestUtils.numberOf(first.run(Program.compile(new SourceFile("<test>", "inc();")))), 3.0);
+    assertEquals(IsolateTestUtils.numberOf(second.globals().get("n")), 2.0);
+  }
+
+  @Test
+  public void testSharedProgramHeap() throws Throwable {
+    // The caches of a program don't keep the heap of the isolates that ran it
+    // alive
+    final Program program = Program.compile(new SourceFile("<test>", """
+        class A { fun m() { return 1; } }
+        var a = A();
+        fun get() { return a; }
+        get().m();
+        a;
+        """));
+    final WeakReference<LoxObject> instance = new WeakReference<>(new Isolate().run(program));
+    InterpreterTestUtils.collect(instance);
+    assertNull(instance.get());
+  }
+
+  @Test
+  public void testSharedGlobalSites() throws Throwable {
+    final Program program = Program.compile(new SourceFile("<test>", "fun get() { return g; } fun set(x) { g = x; }"));
+    final Program define = Program.compile(new SourceFile("<test>", "var g = 1; get();"));
+    final Program bump = Program.compile(new SourceFile("<test>", "set(get() + 1); get();"));
+    final Isolate first = new Isolate();
+    final Isolate second = new Isolate();
+    first.run(program);
+    second.run(program);
+    assertEquals(IsolateTestUtils.numberOf(first.run(define)), 1.0);
+    try {
+      second.run(bump);
+      assertEquals("An exception was caught", "No exception was caught");
+    } catch (InterpreterException e) {
+      assertEquals(e.message, "Undefined variable 'g'");
+    }
+    assertEquals(IsolateTestUtils.numberOf(second.run(define)), 1.0);
+    for (int i = 0; i < 3; ++i) {
+      assertEquals(IsolateTestUtils.numberOf(first.run(bump)), 2.0 + i);
+    }
+    assertEquals(IsolateTestUtils.numberOf(second.run(bump)), 2.0);
+    assertEquals(IsolateTestUtils.numberOf(first.globals().get("g")), 4.0);
+  }
+
+  @Test
+  public void testBudgets() throws Throwable {
+    final long unlimited = ExecutionBudget.UNLIMITED;
+    IsolateTestUtils.assertBudgetErrorIs("while (true) {}", new ExecutionBudget(1000, unlimited, null),
+        "Step limit of 1000 exceeded");
+    IsolateTestUtils.assertBudgetErrorIs("while (true) {}", new ExecutionBudget(unlimited, unlimited, Duration.ofMillis(50)),
+        "Time limit of 50ms exceeded");
+    IsolateTestUtils.assertBudgetErrorIs("class A {} while (true) A();", new ExecutionBudget(unlimited, 100, null),
+        "Allocation limit of 100 exceeded");
+    IsolateTestUtils.assertBudgetErrorIs("var l = List(); while (true) l.push(1);", new ExecutionBudget(unlimited, 100, null),
+        "Allocation limit of 100 exceeded");
+    // Tasks are charged to the budget of the run that spawned them
+    IsolateTestUtils.assertBudgetErrorIs("fun f() { while (true) {} } spawn(f).join();",
+        new ExecutionBudget(1000, unlimited, null), "Step limit of 1000 exceeded");
+    IsolateTestUtils.assertBudgetErrorIs("class A {} fun f() { while (true) A(); } spawn(f).join();",
+        new ExecutionBudget(unlimited, 100, null), "Allocation limit of 100 exceeded");
+    // So are generators and parallel callbacks
+    IsolateTestUtils.assertBudgetErrorIs("fun f(yield) { while (true) {} } Generator(f).next();",
+        new ExecutionBudget(1000, unlimited, null), "Step limit of 1000 exceeded");
+    IsolateTestUtils.assertBudgetErrorIs("fun f(i) { while (true) {} } parallelFor(0, 4, f);",
+        new ExecutionBudget(1000, unlimited, null), "Step limit of 1000 exceeded");
+
+    // Loop iterations and calls are counted exactly
+    final String loop = "var n = 0; for (var i = 0; i < 10; i = i + 1) n = n + 1; n;";
+    assertEquals(IsolateTestUtils.numberOf(new Isolate().run(Program.compile(new SourceFile("<test>", loop)),
+        new ExecutionBudget(10, unlimited, null))), 10.0);
+    IsolateTestUtils.assertBudgetErrorIs(loop, new ExecutionBudget(9, unlimited, null), "Step limit of 9 exceeded");
+    final String calls = "fun f(n) { if (n == 0) return 0; return f(n - 1); } f(5);";
+    final ExecutionBudget budget = new ExecutionBudget(6, 1, null);
+    assertEquals(IsolateTestUtils.numberOf(new Isolate().run(Program.compile(new SourceFile("<test>", calls)), budget)), 0.0);
+    assertEquals(budget.allocations(), 1L);
+    IsolateTestUtils.assertBudgetErrorIs(calls, new ExecutionBudget(5, unlimited, null), "Step limit of 5 exceeded");
+
+    // The isolate can go on once its run has been stopped
+    final Isolate isolate = new Isolate();
+    assertThrows(InterpreterException.class,
+        () -> isolate.run(Program.compile(new SourceFile("<test>", "var k = 1; while (true) {}")), new ExecutionBudget(100, unlimited, null)));
+    assertEquals(IsolateTestUtils.numberOf(isolate.run(Program.compile(new SourceFile("<test>", "var j = 0; while (j < 1000) j = j + 1; j + k;")))), 1001.0);
+  }
+
+  @Test
+  public void testTimeLimits() throws Throwable {
+    final long unlimited = ExecutionBudget.UNLIMITED;
+    final ExecutionBudget budget = new ExecutionBudget(unlimited, unlimited, Duration.ofMillis(200));
+    // Runs are stopped at their time limit even if they don't interpret
+    assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+      IsolateTestUtils.assertBudgetErrorIs("var c = Channel(1); c.receive();", budget, "Time limit of 200ms exceeded");
+      IsolateTestUtils.assertBudgetErrorIs("fun f() { while (true) {} } spawn(f).join();", budget,
+          "Time limit of 200ms exceeded");
+      IsolateTestUtils.assertBudgetErrorIs("var c = Channel(1); fun f() { c.receive(); } spawn(f).join();", budget,
+          "Time limit of 200ms exceeded");
+      IsolateTestUtils.assertBudgetErrorIs("fun f() {} setTimeout(f, 10000);", budget, "Time limit of 200ms exceeded");
+      assertEquals(Thread.currentThread().isInterrupted(), false);
+    });
+
+    // Tasks are stopped when their run ends
+    final Isolate isolate = new Isolate();
+    assertEquals(IsolateTestUtils.numberOf(isolate.run(Program.compile(new SourceFile("<test>", """
+        var n = 0;
+        fun f() { while (true) n = n + 1; }
+        spawn(f);
+        1;
+        """)), budget)), 1.0);
+    Thread.sleep(50);
+    final double n = IsolateTestUtils.numberOf(isolate.globals().get("n"));
+    Thread.sleep(50);
+    assertEquals(IsolateTestUtils.numberOf(isolate.globals().get("n")), n);
+  }
+
+  @Test
+  public void testImmutableBuiltins() throws Throwable {
+    IsolateTestUtils.assertErrorMessageIs("Number.x = 1;", "Class 'Number' is immutable");
+    IsolateTestUtils.assertErrorMessageIs("Object.x = 1;", "Class 'Object' is immutable");
+    IsolateTestUtils.assertRunReturns("class A {} A.x = 1; A.x;", 1.0);
+  }
+
+  @Test
+  public void testConcurrentIsolates() throws Throwable {
+    final Program program = Program.compile(new SourceFile("<test>", """
+        class Counter {
+          fun constructor() { this.n = 0; }
+          fun add(k) { this.n = this.n + k; return this; }
+        }
+        var scale = 2;
+        fun sq(x) { return x * x; }
+        var c = Counter();
+        for (var i = 0; i < 2000; i = i + 1) c.add(sq(i) * scale);
+        toString(c.n) == toString(c.n);
+        c.n;
+        """));
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<LoxObject>> results = new ArrayList<>();
+      for (int i = 0; i < 64; ++i) {
+        results.add(executor.submit(() -> new Isolate().run(program)));
+      }
+      for (Future<LoxObject> result : results) {
+        assertEquals(IsolateTestUtils.numberOf(result.get()), 5329334000.0);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
+
+class IsolateTestUtils {
+  static double numberOf(LoxObject obj) {
+    return ((LoxNumber) obj).value;
+  }
+
+  static void assertRunReturns(String source, double target) throws Throwable {
+    final Program program = Program.compile(new SourceFile("<test>", source));
+    assertEquals(numberOf(new Isolate().run(program)), target);
+  }
+
+  static void assertBudgetErrorIs(String source, ExecutionBudget budget, String target) throws Throwable {
+    final Program program = Program.compile(new SourceFile("<test>", source));
+    final InterpreterException e = assertThrows(InterpreterException.class, () -> new Isolate().run(program, budget));
+    assertEquals(e.message, target);
+  }
+
+  static void assertErrorMessageIs(String source, String target) throws Throwable {
+    final Program program = Program.compile(new SourceFile("<test>", source));
+    try {
+      new Isolate().run(program);
+    } catch (InterpreterException e) {
+      assertEquals(e.message, target);
+      return;
+    }
+    assertEquals("An exception was caught", "No exception was caught");
+  }
+}
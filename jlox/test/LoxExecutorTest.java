@@ -0,0 +1,252 @@
+package com.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.lox.object.LoxChannel;
+import com.lox.object.LoxList;
+import com.lox.object.LoxNil;
+import com.lox.object.LoxNumber;
+import com.lox.object.LoxObject;
+import com.lox.object.LoxString;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoxExecutorTest {
+  @Test
+  public void testSubmit() throws Throwable {
+    try (LoxExecutor executor = new LoxExecutor()) {
+      LoxExecutorTestUtils.assertResultIs(executor.submit(new SourceFile("<test>", "1 + 2;"), Map.of()), 3.0);
+      LoxExecutorTestUtils.assertResultIs(
+          executor.submit(new SourceFile("<test>", "x * y;"), Map.of("x", new LoxNumber(6), "y", new LoxNumber(7))), 42.0);
+      assertEquals(executor.submit(new SourceFile("<test>", "s;"), Map.of("s", LoxString.of("lox"))).get(), LoxString.of("lox"));
+    }
+  }
+
+  @Test
+  public void testErrors() throws Throwable {
+    try (LoxExecutor executor = new LoxExecutor()) {
+      LoxExecutorTestUtils.assertFailsWith(executor.submit(new SourceFile("<test>", "var = 1;"), Map.of()), ParserException.class);
+      LoxExecutorTestUtils.assertFailsWith(executor.submit(new SourceFile("<test>", "x;"), Map.of()), InterpreterException.class);
+      LoxExecutorTestUtils.assertFailsWith(
+          executor.submit(new SourceFile("<test>", "var x = 1;"), Map.of("x", new LoxNumber(1))), InterpreterException.class);
+      // Failed runs don't leave their interpreter in a bad state
+      LoxExecutorTestUtils.assertFailsWith(
+          executor.submit(new SourceFile("<test>", "fun f(n) { return 1 + f(n + 1); } f(0);"), Map.of()), InterpreterException.class);
+      LoxExecutorTestUtils.assertResultIs(
+          executor.submit(new SourceFile("<test>", "fun f(n) { if (n == 0) return 0; return 1 + f(n - 1); } f(100);"), Map.of()), 100.0);
+    }
+  }
+
+  @Test
+  public void testCallDepth() throws Throwable {
+    // Runs and their tasks are capped at what the stack of a virtual thread
+    // holds, which grows with the -Xss of the JVM
+    assertEquals(Interpreter.maxCallDepth(Interpreter.THREAD_STACK_SIZE), Interpreter.THREAD_MAX_CALL_DEPTH);
+    assertTrue(Interpreter.maxCallDepth(8 * Interpreter.THREAD_STACK_SIZE) > 8 * Interpreter.THREAD_MAX_CALL_DEPTH);
+    try (LoxExecutor executor = new LoxExecutor(null, Integer.MAX_VALUE)) {
+      LoxExecutorTestUtils.assertResultIs(executor.submit(new SourceFile("<test>", String.format(
+          "fun f(n) { if (n == 0) return 0; return 1 + f(n - 1); } f(%s);", Interpreter.THREAD_MAX_CALL_DEPTH - 1)), Map.of()),
+          (double) Interpreter.THREAD_MAX_CALL_DEPTH - 1);
+      LoxExecutorTestUtils.assertErrorMessageIs(
+          executor.submit(new SourceFile("<test>", "fun f(n) { return 1 + f(n + 1); } f(0);"), Map.of()),
+          String.format("Maximum call depth of %s exceeded", Interpreter.THREAD_MAX_CALL_DEPTH));
+      LoxExecutorTestUtils.assertErrorMessageIs(
+          executor.submit(new SourceFile("<test>", "fun f(n) { return 1 + f(n + 1); } fun g() { return f(0); } spawn(g).join();"), Map.of()),
+          String.format("Maximum call depth of %s exceeded", Interpreter.THREAD_MAX_CALL_DEPTH));
+    }
+    // Tasks have the call depth of their spawner
+    try (LoxExecutor executor = new LoxExecutor(null, 50)) {
+      LoxExecutorTestUtils.assertErrorMessageIs(
+          executor.submit(new SourceFile("<test>", "fun f(n) { return 1 + f(n + 1); } fun g() { return f(0); } spawn(g).join();"), Map.of()),
+          "Maximum call depth of 50 exceeded");
+    }
+  }
+
+  @Test
+  public void testProgramCache() throws Throwable {
+    try (LoxExecutor executor = new LoxExecutor()) {
+      final Program program = executor.compile(new SourceFile("<a>", "1;"));
+      assertSame(executor.compile(new SourceFile("<b>", "1;")), program);
+      assertNotSame(executor.compile(new SourceFile("<c>", "2;")), program);
+
+      // The least recently used programs go first once the cache is full
+      final Program first = executor.compile(new SourceFile("<test>", "0;"));
+      for (int i = 1; i <= LoxExecutor.MAX_CACHED_PROGRAMS; ++i) {
+        executor.compile(new SourceFile("<test>", i + ";"));
+        assertSame(executor.compile(new SourceFile("<test>", "1;")), program);
+      }
+      assertSame(executor.compile(new SourceFile("<test>", "1;")), program);
+      assertNotSame(executor.compile(new SourceFile("<test>", "0;")), first);
+      final Program last = executor.compile(new SourceFile("<test>", LoxExecutor.MAX_CACHED_PROGRAMS + ";"));
+      assertSame(executor.compile(new SourceFile("<test>", LoxExecutor.MAX_CACHED_PROGRAMS + ";")), last);
+
+      // Neither cached programs nor idle interpreters keep the heap of the
+      // runs that ended alive
+      final Program classes = executor.compile(new SourceFile("<test>", """
+          class A { fun m() { return 1; } }
+          var a = A();
+          fun get() { return a; }
+          get().m();
+          a;
+          """));
+      final WeakReference<LoxObject> instance = new WeakReference<>(executor.submit(classes, Map.of()).get());
+      InterpreterTestUtils.collect(instance);
+      assertNull(instance.get());
+    }
+  }
+
+  @Test
+  public void testPrelude() throws Throwable {
+    final Program prelude = Program.compile(new SourceFile("<prelude>", """
+        var count = 0;
+        var base = 1;
+        fun inc() { count = count + 1; return count; }
+        class A { fun get() { return base; } }
+        class B < A { fun get() { return super.get() * 10; } }
+        """));
+    try (LoxExecutor executor = new LoxExecutor(prelude, Integer.MAX_VALUE)) {
+      final List<CompletableFuture<LoxObject>> results = new ArrayList<>();
+      for (int i = 0; i < 1000; ++i) {
+        results.add(executor.submit(new SourceFile("<test>", "inc(); inc();"), Map.of()));
+      }
+      for (CompletableFuture<LoxObject> result : results) {
+        LoxExecutorTestUtils.assertResultIs(result, 2.0);
+      }
+      LoxExecutorTestUtils.assertResultIs(executor.submit(new SourceFile("<test>", "base = 5; B().get();"), Map.of()), 50.0);
+      LoxExecutorTestUtils.assertResultIs(executor.submit(new SourceFile("<test>", "B().get();"), Map.of()), 10.0);
+    }
+  }
+
+  @Test
+  public void testMutablePrelude() throws Throwable {
+    final Program prelude = Program.compile(new SourceFile("<prelude>", "class A {} var a = A();"));
+    final InterpreterException e = assertThrows(InterpreterException.class, () -> new LoxExecutor(prelude, Integer.MAX_VALUE));
+    assertEquals(e.message, "Global 'a' holds mutable state and can't be copied");
+
+    final Program fields = Program.compile(new SourceFile("<prelude>", "class A {} A.x = 1;"));
+    final InterpreterException f = assertThrows(InterpreterException.class, () -> new LoxExecutor(fields, Integer.MAX_VALUE));
+    assertEquals(f.message, "Global 'A' holds mutable state and can't be copied");
+  }
+
+  @Test
+  public void testTimeSlicing() throws Throwable {
+    final Scheduler scheduler = new Scheduler(1, Duration.ofMillis(1));
+    try (LoxExecutor executor = new LoxExecutor(null, Integer.MAX_VALUE, scheduler)) {
+      final LoxList started = new LoxList();
+      final LoxList stop = new LoxList();
+      final CompletableFuture<LoxObject> spinning = executor.submit(
+          new SourceFile("<test>", "started.push(1); while (stop.length() == 0) {} 1;"), Map.of("started", started, "stop", stop));
+      while (started.length() == 0) {
+        Thread.sleep(1);
+      }
+      // The only carrier is taken by a loop that never ends on its own
+      LoxExecutorTestUtils.assertResultIs(
+          executor.submit(new SourceFile("<test>", "fun f(n) { return n; } f(2);"), Map.of()).get(10, TimeUnit.SECONDS), 2.0);
+      assertEquals(spinning.isDone(), false);
+      stop.push(LoxNil.NIL);
+      LoxExecutorTestUtils.assertResultIs(spinning, 1.0);
+
+      // Tasks are time-sliced along with the run that spawned them
+      final LoxList taskStarted = new LoxList();
+      final LoxList taskStop = new LoxList();
+      final CompletableFuture<LoxObject> spinningTask = executor.submit(new SourceFile("<test>", """
+          fun spin() { started.push(1); while (stop.length() == 0) {} return 1; }
+          spawn(spin).join();
+          """), Map.of("started", taskStarted, "stop", taskStop));
+      while (taskStarted.length() == 0) {
+        Thread.sleep(1);
+      }
+      LoxExecutorTestUtils.assertResultIs(
+          executor.submit(new SourceFile("<test>", "fun f(n) { return n; } f(3);"), Map.of()).get(10, TimeUnit.SECONDS), 3.0);
+      assertEquals(spinningTask.isDone(), false);
+      taskStop.push(LoxNil.NIL);
+      LoxExecutorTestUtils.assertResultIs(spinningTask, 1.0);
+
+      // A run blocked in a native gives up the carrier until it is done waiting
+      final LoxList blockedStarted = new LoxList();
+      final LoxChannel channel = new LoxChannel(1);
+      final CompletableFuture<LoxObject> blocked = executor.submit(
+          new SourceFile("<test>", "started.push(1); c.receive();"), Map.of("started", blockedStarted, "c", channel));
+      while (blockedStarted.length() == 0) {
+        Thread.sleep(1);
+      }
+      LoxExecutorTestUtils.assertResultIs(
+          executor.submit(new SourceFile("<test>", "1 + 1;"), Map.of()).get(10, TimeUnit.SECONDS), 2.0);
+      assertEquals(blocked.isDone(), false);
+      channel.send(new LoxNumber(4));
+      LoxExecutorTestUtils.assertResultIs(blocked, 4.0);
+    }
+  }
+
+  @Test
+  public void testCancel() throws Throwable {
+    final LoxList started = new LoxList();
+    final LoxExecutor executor = new LoxExecutor();
+    final CompletableFuture<LoxObject> spinning = executor.submit(new SourceFile("<test>", """
+        fun spin() { while (true) {} }
+        spawn(spin);
+        started.push(1);
+        while (true) {}
+        """), Map.of("started", started));
+    while (started.length() == 0) {
+      Thread.sleep(1);
+    }
+    spinning.cancel(false);
+    // Closing waits for the runs of the executor to end
+    assertTimeoutPreemptively(Duration.ofSeconds(10), executor::close);
+  }
+
+  @Test
+  public void testOutput() throws Throwable {
+    try (LoxExecutor executor = new LoxExecutor()) {
+      final ByteArrayOutputStream first = new ByteArrayOutputStream();
+      final ByteArrayOutputStream second = new ByteArrayOutputStream();
+      final Program program = executor.compile(new SourceFile("<test>", """
+          print name;
+          fun task() { print "task"; }
+          spawn(task).join();
+          fun show(x) { print x; }
+          parallelFor(0, 1, show);
+          """));
+      final CompletableFuture<LoxObject> a = executor.submit(program, Map.of("name", LoxString.of("a")), null,
+          new PrintStream(first, true, StandardCharsets.UTF_8));
+      final CompletableFuture<LoxObject> b = executor.submit(program, Map.of("name", LoxString.of("b")), null,
+          new PrintStream(second, true, StandardCharsets.UTF_8));
+      a.get();
+      b.get();
+      assertEquals(first.toString(StandardCharsets.UTF_8), "\"a\"\n\"task\"\n0.0\n");
+      assertEquals(second.toString(StandardCharsets.UTF_8), "\"b\"\n\"task\"\n0.0\n");
+    }
+  }
+}
+
+class LoxExecutorTestUtils {
+  static void assertResultIs(CompletableFuture<LoxObject> result, double target) throws Throwable {
+    assertResultIs(result.get(), target);
+  }
+
+  static void assertResultIs(LoxObject result, double target) {
+    assertEquals(((LoxNumber) result).value, target);
+  }
+
+  static void assertFailsWith(CompletableFuture<LoxObject> result, Class<?> target) throws Throwable {
+    final ExecutionException e = assertThrows(ExecutionException.class, () -> result.get());
+    assertEquals(e.getCause().getClass(), target);
+  }
+
+  static void assertErrorMessageIs(CompletableFuture<LoxObject> result, String target) throws Throwable {
+    final ExecutionException e = assertThrows(ExecutionException.class, () -> result.get());
+    assertEquals(((InterpreterException) e.getCause()).message, target);
+  }
+}
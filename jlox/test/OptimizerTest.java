@@ -0,0 +1,173 @@
+package com.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import com.lox.*;
+import com.lox.ast.Stmt;
+import com.lox.ast.Token;
+import com.lox.utils.Pair;
+
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OptimizerTest {
+  @Test
+  public void testConstantFolding() throws Throwable {
+    OptimizerTestUtils.assertOptimizedEquals("1 + 2 * 3;", "7.0");
+    OptimizerTestUtils.assertOptimizedEquals("(1 + 2) * 3;", "9.0");
+    OptimizerTestUtils.assertOptimizedEquals("-(4 - 1);", "-3.0");
+    OptimizerTestUtils.assertOptimizedEquals("!nil;", "true");
+    OptimizerTestUtils.assertOptimizedEquals("1 < 2 == true;", "true");
+    OptimizerTestUtils.assertOptimizedEquals("1 == \"1\";", "false");
+    OptimizerTestUtils.assertOptimizedEquals("\"a\" == \"a\";", "true");
+    OptimizerTestUtils.assertOptimizedEquals("\"a\" != \"b\";", "true");
+    OptimizerTestUtils.assertOptimizedEquals("nil or 3;", "3");
+    OptimizerTestUtils.assertOptimizedEquals("false and x;", "false");
+    OptimizerTestUtils.assertOptimizedEquals("true and x;", "x");
+    OptimizerTestUtils.assertOptimizedEquals("x = 1 + 1;", "(= x 2.0)");
+    OptimizerTestUtils.assertOptimizedEquals("f(1 + 1, x + 1);", "(f 2.0 (+ x 1))");
+  }
+
+  @Test
+  public void testKeepRuntimeErrors() throws Throwable {
+    OptimizerTestUtils.assertOptimizedEquals("\"a\" - 1;", "(- \"a\" 1)");
+    OptimizerTestUtils.assertOptimizedEquals("-\"a\";", "(- \"a\")");
+    OptimizerTestUtils.assertOptimizedEquals("1 < nil;", "(< 1 nil)");
+    OptimizerTestUtils.assertErrorMessageIs("print 1; \"a\" - 1;", "Unsupported operator '-' on String and Number");
+  }
+
+  @Test
+  public void testDeadBranches() throws Throwable {
+    OptimizerTestUtils.assertOptimizedEquals("if (true) print 1; else print 2;", "(print 1)");
+    OptimizerTestUtils.assertOptimizedEquals("if (nil) print 1; else print 2;", "(print 2)");
+    OptimizerTestUtils.assertOptimizedEquals("if (1 > 2) print 1;", "nil");
+    OptimizerTestUtils.assertOptimizedEquals("if (true) { var a = 1; }", "(block (define a 1))");
+    OptimizerTestUtils.assertOptimizedEquals("while (false) print 1; print 2;", "(print 2)");
+    OptimizerTestUtils.assertOptimizedEquals("for (var i = 0; false; i = i + 1) print i;", "(block (define i 0) nil)");
+    OptimizerTestUtils.assertOptimizedEquals("if (x) print 1; else print 1 + 1;", "(if x then (print 1) else (print 2.0))");
+  }
+
+  @Test
+  public void testDeadCode() throws Throwable {
+    OptimizerTestUtils.assertOptimizedEquals("fun f() { return 1; print 2; }", "(fun (f) (block (return 1)))");
+    OptimizerTestUtils.assertOptimizedEquals("fun f() { return 1; var a = 2; }", "(fun (f) (block (return 1) (define a 2)))");
+    OptimizerTestUtils.assertOptimizedEquals("fun f(a) { if (a) return 1; else { return 2; } print 3; }",
+        "(fun (f a) (block (if a then (return 1) else (block (return 2)))))");
+    OptimizerTestUtils.assertOptimizedEquals("fun f(a) { if (a) return 1; print 3; }",
+        "(fun (f a) (block (if a then (return 1)) (print 3)))");
+    OptimizerTestUtils.assertOptimizedEquals("1; 2;", "2");
+  }
+
+  @Test
+  public void testSameBehavior() throws Throwable {
+    OptimizerTestUtils.assertStdoutIs("var a = 4.0; var t; { fun g() { print a; } var a = 3.0; t = g; if (true) { var a2 = 1; } } t();", "3.0\n");
+    OptimizerTestUtils.assertStdoutIs("fun f(n) { if (n < 1 + 1) return n; return f(n - 1) + f(n - 2); print n; } print f(10);", "55.0\n");
+    OptimizerTestUtils.assertStdoutIs("var a = 1; if (false) { var a = 2; } print a;", "1.0\n");
+  }
+
+  @Test
+  public void testFusedNodes() throws Throwable {
+    OptimizerTestUtils.assertOptimizedEquals("i = i + 1;", "(+= i 1)");
+    OptimizerTestUtils.assertOptimizedEquals("i = i - (1 + 1);", "(-= i 2.0)");
+    OptimizerTestUtils.assertOptimizedEquals("i = i + k;", "(+= i k)");
+    OptimizerTestUtils.assertOptimizedEquals("i = j + 1;", "(= i (+ j 1))");
+    OptimizerTestUtils.assertOptimizedEquals("i = i * 2;", "(= i (* i 2))");
+    OptimizerTestUtils.assertOptimizedEquals("i = i + f();", "(= i (+ i (f)))");
+    OptimizerTestUtils.assertOptimizedEquals("i < n;", "(var< i n)");
+    OptimizerTestUtils.assertOptimizedEquals("a == nil;", "(var== a nil)");
+    OptimizerTestUtils.assertOptimizedEquals("1 < n;", "(< 1 n)");
+    OptimizerTestUtils.assertOptimizedEquals("this.n = this.n + 1;", "(+= (. this n) 1)");
+    OptimizerTestUtils.assertOptimizedEquals("o.n = o.n - k;", "(-= (. o n) k)");
+    OptimizerTestUtils.assertOptimizedEquals("o.n = p.n + 1;", "(= (. o n) (+ (. p n) 1))");
+    OptimizerTestUtils.assertOptimizedEquals("o.n = o.m + 1;", "(= (. o n) (+ (. o m) 1))");
+    OptimizerTestUtils.assertOptimizedEquals("f().n = f().n + 1;", "(= (. (f) n) (+ (. (f) n) 1))");
+  }
+
+  @Test
+  public void testFusedNodesBehavior() throws Throwable {
+    OptimizerTestUtils.assertStdoutIs("var s = 0; for (var i = 0; i < 5; i = i + 1) s = s + i; print s;", "10.0\n");
+    OptimizerTestUtils.assertStdoutIs("var i = 3; print i = i - 1; print i >= 2; print i != 2; print i == \"2\";", "2.0\ntrue\nfalse\nfalse\n");
+    OptimizerTestUtils.assertStdoutIs("class C { fun inc() { return this.n = this.n + 1; } } var c = C(); c.n = 1; c.inc(); print c.inc();", "3.0\n");
+    OptimizerTestUtils.assertErrorMessageIs("var s = \"a\"; s = s + 1;", "Unsupported operator '+' on String and Number");
+    OptimizerTestUtils.assertErrorMessageIs("var b = nil; b < 1;", "Unsupported operator '<' on Nil and Number");
+    OptimizerTestUtils.assertErrorMessageIs("i = i + 1;", "Undefined variable 'i'");
+    OptimizerTestUtils.assertErrorMessageIs("{ i = i + 1; var i = 0; }", "Variable 'i' used before defined");
+    OptimizerTestUtils.assertErrorMessageIs("var n = 1; n.f = n.f + 1;", "Unsupported operator '+' on Nil and Number");
+  }
+
+  @Test
+  public void testCountedLoops() throws Throwable {
+    OptimizerTestUtils.assertCounted("for (var i = 0; i < 10; i = i + 1) print i;", true);
+    OptimizerTestUtils.assertCounted("for (var i = 10; i >= n; i = i - 0.5) { var a = 1; }", true);
+    OptimizerTestUtils.assertCounted("for (var i = 0; i < 10; i = i + 1) { i = i + 1; }", false);
+    OptimizerTestUtils.assertCounted("for (var i = 0; i < 10; i = i + 1) { fun f() { return 1; } }", false);
+    OptimizerTestUtils.assertCounted("for (var i = 0; i < 10; i = i + k) print i;", false);
+    OptimizerTestUtils.assertCounted("for (var i = 0; i != 10; i = i + 1) print i;", false);
+    OptimizerTestUtils.assertCounted("var i; for (i = 0; i < 10; i = i + 1) print i;", false);
+
+    OptimizerTestUtils.assertStdoutIs("var s = 0; for (var i = 0; i < 5; i = i + 1) s = s + i; print s;", "10.0\n");
+    OptimizerTestUtils.assertStdoutIs("for (var i = 3; i > 0; i = i - 1.5) print i;", "3.0\n1.5\n");
+    OptimizerTestUtils.assertStdoutIs("var n = 3; for (var i = 0; i < n; i = i + 1) { n = n - 1; print i; }", "0.0\n1.0\n");
+    OptimizerTestUtils.assertStdoutIs("var c = 0; for (var i = 0; i < 3; i = i + 1) for (var j = i; j < 3; j = j + 1) c = c + 1; print c;", "6.0\n");
+    OptimizerTestUtils.assertStdoutIs("var g; for (var i = 0; i < 3; i = i + 1) { fun f() { return i; } g = f; } print g();", "3.0\n");
+    OptimizerTestUtils.assertErrorMessageIs("for (var i = \"a\"; i < 1; i = i + 1) print i;", "Unsupported operator '<' on String and Number");
+    OptimizerTestUtils.assertErrorMessageIs("for (var i = 0; i < \"a\"; i = i + 1) print i;", "Unsupported operator '<' on Number and String");
+  }
+
+  @Test
+  public void testReuseUnchangedNodes() throws Throwable {
+    List<Stmt> stmts = OptimizerTestUtils.parse("var a = 1; fun f(x) { return x + a; } print f(2);");
+    assertSame(new Optimizer().optimize(stmts), stmts);
+  }
+}
+
+class OptimizerTestUtils {
+  static List<Stmt> parse(String source) {
+    Scanner scanner = new Scanner(source);
+    Pair<List<Token>, List<ScannerException>> scanned = scanner.tokenize();
+    assertEquals(scanned.second, List.of());
+    Parser parser = new Parser(scanned.first);
+    Pair<List<Stmt>, List<ParserException>> parsed = parser.parse();
+    assertEquals(parsed.second, List.of());
+    return parsed.first;
+  }
+
+  static void assertOptimizedEquals(String source, String prettyPrintedText) {
+    List<Stmt> stmts = new Optimizer().optimize(OptimizerTestUtils.parse(source));
+    assertEquals(new PrettyPrinter().print(stmts), prettyPrintedText);
+  }
+
+  static void assertCounted(String source, boolean target) {
+    List<Stmt> stmts = new Optimizer().optimize(OptimizerTestUtils.parse(source));
+    Stmt.ForStmt loop = (Stmt.ForStmt) stmts.get(stmts.size() - 1);
+    assertEquals(LoopAnalyzer.isCounted(loop), target);
+  }
+
+  static void assertErrorMessageIs(String source, String target) throws Throwable {
+    List<Stmt> stmts = new Optimizer().optimize(OptimizerTestUtils.parse(source));
+    PrintStream originalStream = System.out;
+    System.setOut(new PrintStream(new ByteArrayOutputStream()));
+    try {
+      new Interpreter().evaluate(stmts);
+    } catch (InterpreterException e) {
+      assertEquals(e.message, target);
+      return;
+    } finally {
+      System.setOut(originalStream);
+    }
+    assertEquals("An exception was caught", "No exception was caught");
+  }
+
+  static void assertStdoutIs(String source, String target) throws Throwable {
+    List<Stmt> stmts = new Optimizer().optimize(OptimizerTestUtils.parse(source));
+    PrintStream originalStream = System.out;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(out));
+    new Interpreter().evaluate(stmts);
+    System.setOut(originalStream);
+
+    assertEquals(out.toString(), target);
+  }
+}
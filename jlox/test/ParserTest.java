@@ -307,6 +307,52 @@ public class ParserTest {
     ParserTestUtils.assertNoErrorAndResultEquals(ParserTestUtils.parse("super()().a;"), "(. ((super)) a)");
     ParserTestUtils.assertNoErrorAndResultEquals(ParserTestUtils.parse("super().b();"), "((. (super) b))");
   }
+
+  @Test
+  public void testIncrementalReparse() throws Throwable {
+    IncrementalParser parser = new IncrementalParser("var a = 1;\nprint a;\n\nfun f() { return 2; }\n");
+    List<Stmt> before = new ArrayList<>(parser.stmts());
+
+    // Edit inside the first declaration
+    ParserTestUtils.assertIncrementalEditEquals(parser, 8, 1, "10");
+    assertNotSame(parser.stmts().get(0), before.get(0));
+    assertSame(parser.stmts().get(1), before.get(1));
+    assertSame(parser.stmts().get(2), before.get(2));
+
+    // Insert a declaration between two others
+    ParserTestUtils.assertIncrementalEditEquals(parser, 21, 0, "var b = a + 1;\n");
+    assertEquals(parser.stmts().size(), 4);
+    assertSame(parser.stmts().get(1), before.get(1));
+    assertSame(parser.stmts().get(3), before.get(2));
+
+    // Break then fix the function body
+    ParserTestUtils.assertIncrementalEditEquals(parser, parser.source().length() - 2, 1, "");
+    assertTrue(parser.hasErrors());
+    ParserTestUtils.assertIncrementalEditEquals(parser, parser.source().length() - 1, 0, "}");
+    assertFalse(parser.hasErrors());
+
+    // A comment that swallows the rest of a line
+    parser = new IncrementalParser("print 1; print 2;\nprint 3;");
+    ParserTestUtils.assertIncrementalEditEquals(parser, 0, 0, "// ");
+    assertEquals(ParserTestUtils.prettyPrint(parser.stmts()), "(print 3)");
+
+    // Merging two declarations into one
+    parser = new IncrementalParser("print 1; print 2; print 3;");
+    before = new ArrayList<>(parser.stmts());
+    ParserTestUtils.assertIncrementalEditEquals(parser, 7, 8, " +");
+    assertEquals(ParserTestUtils.prettyPrint(parser.stmts()), "(print (+ 1 2))\n(print 3)");
+    assertSame(parser.stmts().get(1), before.get(2));
+
+    // Edits back and forth shift the spans between them
+    parser = new IncrementalParser("print 1; print 2; print 3; print 4;");
+    ParserTestUtils.assertIncrementalEditEquals(parser, parser.source().indexOf("4"), 1, "44");
+    ParserTestUtils.assertIncrementalEditEquals(parser, parser.source().indexOf("1"), 1, "111");
+    ParserTestUtils.assertIncrementalEditEquals(parser, parser.source().indexOf("111"), 0, "7 + ");
+    ParserTestUtils.assertIncrementalEditEquals(parser, parser.source().indexOf("3"), 0, "var x = 1; print ");
+    ParserTestUtils.assertIncrementalEditEquals(parser, parser.source().indexOf("2"), 1, "2222222222222222222222222222222222");
+    ParserTestUtils.assertIncrementalEditEquals(parser, 0, parser.source().indexOf("var"), "");
+    assertEquals(parser.source(), "var x = 1; print 3; print 44;");
+  }
 }
 
 class ParserTestUtils {
@@ -332,6 +378,23 @@ class ParserTestUtils {
     assertEquals(ParserTestUtils.prettyPrint(res.first), prettyPrintedText);
   }
 
+  static void assertIncrementalEditEquals(IncrementalParser parser, int offset, int removedLength, String insertedText)
+      throws Throwable {
+    parser.edit(offset, removedLength, insertedText);
+    Pair<List<Stmt>, List<ParserException>> full = ParserTestUtils.parse(parser.source());
+    assertEquals(parser.parserErrors().size(), full.second.size());
+    assertEquals(ParserTestUtils.prettyPrint(parser.stmts()), ParserTestUtils.prettyPrint(full.first));
+    if (!parser.hasErrors()) {
+      Parser fullParser = new Parser(new Scanner(parser.source()).tokenize().first);
+      fullParser.parse();
+      List<Pair<Token, Token>> bounds = fullParser.topLevelBounds();
+      for (int i = 0; i < bounds.size(); ++i) {
+        assertEquals(parser.spanOf(i).first, bounds.get(i).first.startOffset);
+        assertEquals(parser.spanOf(i).second, bounds.get(i).second.endOffset);
+      }
+    }
+  }
+
   static void assertErrors(Pair<List<Stmt>, List<ParserException>> res, String[] errorMessages) {
     assertEquals(res.second.size(), errorMessages.length);
     for (int i = 0; i < res.second.size(); ++i) {
@@ -322,4 +322,21 @@ public class ScannerTest {
     assertEquals(tokens.get(2).type, TokenType.EOF);
     assertEquals(tokens.get(2).literal, null);
   }
+
+  @Test
+  public void testSourceFileLineAndCol() {
+    SourceFile source = new SourceFile("test.lox", "var a;\n\nprint a;\n");
+
+    assertEquals(source.lineCount(), 4);
+    assertEquals(source.getLineAndCol(0).first, 1);
+    assertEquals(source.getLineAndCol(0).second, 1);
+    assertEquals(source.getLineAndCol(6).first, 1);
+    assertEquals(source.getLineAndCol(6).second, 7);
+    assertEquals(source.getLineAndCol(7).first, 2);
+    assertEquals(source.getLineAndCol(7).second, 1);
+    assertEquals(source.getLineAndCol(14).first, 3);
+    assertEquals(source.getLineAndCol(14).second, 7);
+    assertEquals(source.getLineAndCol(17).first, 4);
+    assertEquals(source.getLineAndCol(17).second, 1);
+  }
 }